@@ -23,6 +23,14 @@ dependencies {
     }
 }
 
+// PolyphaseResampler's vector kernel uses the incubating Vector API; without the module at run
+// time it falls back to a scalar loop
+val vectorModule = listOf("--add-modules", "jdk.incubator.vector")
+
+tasks.withType<JavaCompile> {
+    options.compilerArgs.addAll(vectorModule)
+}
+
 val extractNatives = tasks.register<Copy>("extractNatives") {
     from(configurations.getByName("jinputNatives").map { zipTree(it) })
     into(layout.buildDirectory.dir("natives/jinput"))
@@ -31,10 +39,29 @@ val extractNatives = tasks.register<Copy>("extractNatives") {
 tasks.test {
     dependsOn(extractNatives)
     systemProperty("java.library.path", layout.buildDirectory.dir("natives/jinput").get().asFile.absolutePath)
+    jvmArgs(vectorModule)
     useJUnitPlatform()
 }
 
 tasks.withType<JavaExec> {
     dependsOn(extractNatives)
     systemProperty("java.library.path", layout.buildDirectory.dir("natives/jinput").get().asFile.absolutePath)
-}
\ No newline at end of file
+    jvmArgs(vectorModule)
+}
+
+tasks.register<JavaExec>("resamplerBenchmark") {
+    description = "Measures PolyphaseResampler throughput with the scalar and vector kernels."
+    classpath = sourceSets.test.get().runtimeClasspath
+    mainClass.set("com.sidpatchy.yolones.PolyphaseResamplerBenchmark")
+}
+tasks.register<JavaExec>("mapperBenchmark") {
+    description = "Measures PRG read, CHR read and register write throughput of every registered mapper."
+    classpath = sourceSets.test.get().runtimeClasspath
+    mainClass.set("com.sidpatchy.yolones.Hardware.Mappers.MapperBenchmark")
+}
+
+tasks.register<JavaExec>("mixerBenchmark") {
+    description = "Measures the time per APU.getSample() call with all four channels sounding."
+    classpath = sourceSets.test.get().runtimeClasspath
+    mainClass.set("com.sidpatchy.yolones.Hardware.ApuMixerBenchmark")
+}
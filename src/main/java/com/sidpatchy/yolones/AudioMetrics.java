@@ -0,0 +1,172 @@
+package com.sidpatchy.yolones;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Health of the audio path: how much audio is queued ahead of the speaker (and so the output
+ * latency), how often the device ran dry or samples had to be dropped, and how long the output
+ * thread spends blocked in {@code SourceDataLine.write}.
+ * <p>
+ * The emulation thread records the fill level and overruns, the output thread underruns and
+ * write times; any thread may read. toString() gives a one-line key=value summary for logs.
+ */
+public class AudioMetrics {
+    /** Fill levels kept for {@link #getFillHistory()}, one per produced frame: 10s at 60 fps. */
+    public static final int HISTORY = 600;
+    /** Write time buckets: bucket 0 is under 1us, bucket i is [2^(i-1), 2^i) us, the last is open. */
+    public static final int WRITE_BUCKETS = 22;
+
+    private final int sampleRate;
+
+    private final int[] fillHistory = new int[HISTORY]; // Queued samples, ring plus device buffer
+    private volatile long fillCount = 0;                // Fill levels recorded so far
+
+    private final AtomicLong underruns = new AtomicLong();
+    private final AtomicLong overruns = new AtomicLong();
+    private final AtomicLong droppedSamples = new AtomicLong();
+
+    private final AtomicLongArray writeBuckets = new AtomicLongArray(WRITE_BUCKETS);
+    private volatile long writes = 0;
+    private volatile long writeNanos = 0;
+    private volatile long maxWriteNanos = 0;
+
+    /**
+     * @param sampleRate rate the fill levels are counted in
+     */
+    public AudioMetrics(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /** Record the samples queued ahead of the speaker. Producer thread only. */
+    void recordFill(int queuedSamples) {
+        long count = fillCount;
+        fillHistory[(int) (count % HISTORY)] = queuedSamples;
+        fillCount = count + 1;
+    }
+
+    /** Record that samples had to be dropped because the queue was full. Producer thread only. */
+    void recordOverrun(int dropped) {
+        overruns.incrementAndGet();
+        droppedSamples.addAndGet(dropped);
+    }
+
+    /** Record that the device ran out of audio. Output thread only. */
+    void recordUnderrun() {
+        underruns.incrementAndGet();
+    }
+
+    /** Record one blocking write to the device. Output thread only. */
+    void recordWrite(long blockedNanos) {
+        long micros = blockedNanos / 1000;
+        int bucket = Math.min(WRITE_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        writeBuckets.incrementAndGet(bucket);
+        writes++;
+        writeNanos += blockedNanos;
+        if (blockedNanos > maxWriteNanos) {
+            maxWriteNanos = blockedNanos;
+        }
+    }
+
+    /** Most recently recorded fill level in samples, 0 before any. */
+    public int getFillSamples() {
+        long count = fillCount;
+        return count == 0 ? 0 : fillHistory[(int) ((count - 1) % HISTORY)];
+    }
+
+    /** Estimated output latency: how long the most recent sample waits before it is heard. */
+    public double getLatencyMs() {
+        return getFillSamples() * 1000.0 / sampleRate;
+    }
+
+    /** Average latency over the recorded history. */
+    public double getAverageLatencyMs() {
+        int[] history = getFillHistory();
+        if (history.length == 0) return 0;
+        long sum = 0;
+        for (int fill : history) {
+            sum += fill;
+        }
+        return sum * 1000.0 / sampleRate / history.length;
+    }
+
+    /** Recorded fill levels in samples, oldest first, at most {@link #HISTORY} of them. */
+    public int[] getFillHistory() {
+        long count = fillCount;
+        int length = (int) Math.min(count, HISTORY);
+        int[] history = new int[length];
+        for (int i = 0; i < length; i++) {
+            history[i] = fillHistory[(int) ((count - length + i) % HISTORY)];
+        }
+        return history;
+    }
+
+    public long getUnderruns() {
+        return underruns.get();
+    }
+
+    public long getOverruns() {
+        return overruns.get();
+    }
+
+    public long getDroppedSamples() {
+        return droppedSamples.get();
+    }
+
+    /** Number of writes that fell in each bucket, see {@link #WRITE_BUCKETS}. */
+    public long[] getWriteHistogram() {
+        long[] histogram = new long[WRITE_BUCKETS];
+        for (int i = 0; i < WRITE_BUCKETS; i++) {
+            histogram[i] = writeBuckets.get(i);
+        }
+        return histogram;
+    }
+
+    /** Upper bound of a histogram bucket in microseconds, Long.MAX_VALUE for the last. */
+    public static long bucketLimitMicros(int bucket) {
+        return bucket == WRITE_BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    /**
+     * Write time below which the given fraction of writes completed, to bucket resolution (the
+     * bucket's upper bound, or the longest write if that is less).
+     */
+    public long getWritePercentileMicros(double fraction) {
+        long[] histogram = getWriteHistogram();
+        long total = 0;
+        for (long n : histogram) {
+            total += n;
+        }
+        long needed = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < WRITE_BUCKETS; i++) {
+            seen += histogram[i];
+            if (seen >= needed && seen > 0) {
+                return Math.min(bucketLimitMicros(i), maxWriteNanos / 1000);
+            }
+        }
+        return 0;
+    }
+
+    public long getWrites() {
+        return writes;
+    }
+
+    public double getAverageWriteMs() {
+        long n = writes;
+        return n == 0 ? 0 : writeNanos / 1e6 / n;
+    }
+
+    public double getMaxWriteMs() {
+        return maxWriteNanos / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("latencyMs=%.1f avgLatencyMs=%.1f fill=%d underruns=%d overruns=%d dropped=%d "
+                        + "writes=%d writeAvgMs=%.2f writeP50us<=%d writeP99us<=%d writeMaxMs=%.2f",
+                getLatencyMs(), getAverageLatencyMs(), getFillSamples(), getUnderruns(), getOverruns(),
+                getDroppedSamples(), getWrites(), getAverageWriteMs(), getWritePercentileMicros(0.5),
+                getWritePercentileMicros(0.99), getMaxWriteMs());
+    }
+}
@@ -1,46 +1,169 @@
 package com.sidpatchy.yolones;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.SourceDataLine;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays samples on a dedicated output thread. The emulation thread hands samples over through a
+ * lock-free ring and never waits on the audio device; instead it asks {@link #getRateRatio()} how
+ * fast to produce them, which keeps the device buffer full and the ring near half full.
+ * <p>
+ * Samples are always produced at {@link #getSampleRate()}. When the device runs at another rate the
+ * output thread resamples them with a {@link PolyphaseResampler}.
+ */
+public class AudioPlayer implements AudioSink {
+    private static final Logger logger = LogManager.getLogger(AudioPlayer.class);
 
-public class AudioPlayer {
     private static final int SAMPLE_RATE = 44100;
-    private static final int BUFFER_SIZE = 735 * 2; // Roughly one frame worth of samples (1470 bytes)
+    public static final int DEFAULT_DEVICE_RATE = 48000;
+    public static final int DEFAULT_BUFFER_MS = 100;
+    // Healthy audio cushion to prevent stuttering.
+    // 40ms @ 44100Hz 16-bit mono = 44100 * 0.04 * 2 = 3528 bytes.
+    public static final int MIN_CUSHION_BYTES = 3528;
+    // Largest change to the production rate requested by getRateRatio()
+    public static final double MAX_RATE_ADJUST = 0.005;
+
+    private static final int RING_SAMPLES = 4096;  // ~93ms, rate control aims for half
+    private static final int WRITE_CHUNK = 256;    // Samples per line.write() on the output thread
+
+    private final int deviceRate;
+    private final PolyphaseResampler resampler; // Null when the device runs at SAMPLE_RATE
     private SourceDataLine line;
-    private byte[] buffer;
-    private int bufferIndex;
+    private final FloatRingBuffer ring = new FloatRingBuffer(RING_SAMPLES);
+    private final float[] single = new float[1];
+    private Thread outputThread;
+    private volatile boolean running = false;
+    private final AudioMetrics metrics = new AudioMetrics(SAMPLE_RATE);
+
+    // Time the output thread spent resampling and converting, and the samples it produced
+    private volatile long resampleNanos = 0;
+    private volatile long resampledSamples = 0;
 
     public AudioPlayer() {
-        AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, 1, true, false);
+        this(DEFAULT_DEVICE_RATE);
+    }
+
+    /**
+     * @param deviceRate sample rate to open the audio device at
+     */
+    public AudioPlayer(int deviceRate) {
+        this(deviceRate, DEFAULT_BUFFER_MS);
+    }
+
+    /**
+     * @param deviceRate sample rate to open the audio device at
+     * @param bufferMs   length of the device's own buffer
+     */
+    public AudioPlayer(int deviceRate, int bufferMs) {
+        this.deviceRate = deviceRate;
+        this.resampler = deviceRate != SAMPLE_RATE ? new PolyphaseResampler(SAMPLE_RATE, deviceRate) : null;
+
+        AudioFormat format = new AudioFormat(deviceRate, 16, 1, true, false);
         try {
             line = AudioSystem.getSourceDataLine(format);
-            // Open with a reasonable internal buffer (e.g., 100ms)
-            // 44100 * 0.1 * 2 bytes = 8820 bytes
-            line.open(format, 8820);
+            // Open with the requested internal buffer (100ms by default)
+            // 48000 * 0.1 * 2 bytes = 9600 bytes
+            line.open(format, deviceRate * bufferMs / 1000 * 2);
             line.start();
-        } catch (LineUnavailableException e) {
-            e.printStackTrace();
+        } catch (LineUnavailableException | IllegalArgumentException e) {
+            // No usable device (e.g. a headless node); keep running silently, FileAudioSink can capture instead
+            logger.warn("No audio output at {} Hz, playing silently: {}", deviceRate, e.toString());
+            line = null;
+        }
+
+        if (line != null) {
+            running = true;
+            outputThread = new Thread(this::outputLoop, "audio-output");
+            outputThread.setDaemon(true);
+            outputThread.setPriority(Thread.MAX_PRIORITY);
+            outputThread.start();
+        }
+    }
+
+    // Moves samples from the ring to the device. Only this thread ever blocks on the line.
+    private void outputLoop() {
+        float[] chunk = new float[WRITE_CHUNK];
+        float[] resampled = resampler != null ? new float[resampler.maxOutput(WRITE_CHUNK)] : chunk;
+        short[] scratch = new short[resampled.length];
+        byte[] pcm = new byte[resampled.length * 2];
+        boolean starved = true; // Nothing to play yet, so an empty device is not an underrun
+        while (running) {
+            int count = ring.read(chunk, 0, WRITE_CHUNK);
+            if (count == 0) {
+                // Count each time the device drains completely, not every empty poll
+                if (!starved && line.available() >= line.getBufferSize()) {
+                    metrics.recordUnderrun();
+                    starved = true;
+                }
+                LockSupport.parkNanos(1_000_000);
+                continue;
+            }
+            starved = false;
+            long start = System.nanoTime();
+            if (resampler != null) {
+                count = resampler.process(chunk, 0, count, resampled);
+            }
+            // Band-limited synthesis can overshoot slightly, the conversion clamps it
+            PolyphaseResampler.toPcm16(resampled, 0, count, scratch, pcm);
+            resampleNanos += System.nanoTime() - start;
+            resampledSamples += count;
+
+            start = System.nanoTime();
+            line.write(pcm, 0, count * 2);
+            metrics.recordWrite(System.nanoTime() - start);
         }
-        buffer = new byte[BUFFER_SIZE];
-        bufferIndex = 0;
     }
 
     public void addSample(float sample) {
+        single[0] = sample;
+        addSamples(single, 1);
+    }
+
+    /**
+     * Queue samples for playback without blocking. Samples that do not fit in the ring are dropped.
+     */
+    @Override
+    public void addSamples(float[] samples, int count) {
         if (line == null) return;
+        int written = ring.write(samples, 0, count);
+        if (written < count) {
+            metrics.recordOverrun(count - written);
+        }
+        metrics.recordFill(getBufferedBytes() / 2);
+    }
 
-        // Convert float sample (-1.0 to 1.0) to 16-bit PCM
-        short pcm = (short) (sample * 32767);
-        buffer[bufferIndex++] = (byte) (pcm & 0xFF);
-        buffer[bufferIndex++] = (byte) ((pcm >> 8) & 0xFF);
+    public AudioMetrics getMetrics() {
+        return metrics;
+    }
 
-        if (bufferIndex >= buffer.length) {
-            // write() will block until there is space in the buffer.
-            // This provides the natural backpressure for the emulation speed.
-            line.write(buffer, 0, buffer.length);
-            bufferIndex = 0;
-        }
+    /**
+     * Factor to scale the production sample rate by, within 1 +/- MAX_RATE_ADJUST. Above 1 when
+     * less than {@link #getTargetBufferedBytes()} is queued, below 1 when more is, reaching the
+     * limits half a ring away from the target.
+     */
+    @Override
+    public double getRateRatio() {
+        if (line == null) return 1.0;
+        double error = (double) (getTargetBufferedBytes() - getBufferedBytes()) / ring.capacity();
+        return 1.0 + Math.max(-1.0, Math.min(1.0, error)) * MAX_RATE_ADJUST;
+    }
+
+    /** A full device buffer and a half full ring, in the units of {@link #getBufferedBytes()}. */
+    @Override
+    public int getTargetBufferedBytes() {
+        if (line == null) return 0;
+        return (int) ((long) line.getBufferSize() * SAMPLE_RATE / deviceRate) + ring.capacity();
+    }
+
+    /** Whether a device was opened. Without one samples are accepted and discarded. */
+    public boolean isAvailable() {
+        return line != null;
     }
 
     public int getAvailableBytes() {
@@ -48,12 +171,42 @@ public class AudioPlayer {
         return line.available();
     }
 
+    /**
+     * Audio queued ahead of the speaker: the ring plus the device buffer, in 16-bit mono bytes at
+     * {@link #getSampleRate()}.
+     */
+    @Override
+    public int getBufferedBytes() {
+        if (line == null) return 0;
+        long deviceBytes = line.getBufferSize() - line.available();
+        return ring.size() * 2 + (int) (deviceBytes * SAMPLE_RATE / deviceRate);
+    }
+
+    /**
+     * Output samples per second the output thread's resampling and PCM conversion sustain on its
+     * core, measured over everything played so far. 0 before any audio has been played.
+     */
+    public double getResampleThroughput() {
+        long nanos = resampleNanos;
+        return nanos == 0 ? 0 : resampledSamples * 1e9 / nanos;
+    }
+
+    @Override
     public int getBufferSize() {
         if (line == null) return 0;
         return line.getBufferSize();
     }
 
+    @Override
     public void close() {
+        running = false;
+        if (outputThread != null) {
+            try {
+                outputThread.join(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
         if (line != null) {
             line.drain();
             line.stop();
@@ -61,7 +214,13 @@ public class AudioPlayer {
         }
     }
 
+    /** Rate samples are expected at by {@link #addSamples}. */
+    @Override
     public int getSampleRate() {
         return SAMPLE_RATE;
     }
+
+    public int getDeviceRate() {
+        return deviceRate;
+    }
 }
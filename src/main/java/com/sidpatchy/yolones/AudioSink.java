@@ -0,0 +1,47 @@
+package com.sidpatchy.yolones;
+
+/**
+ * Destination for the emulator's audio, fed from the emulation thread once per frame.
+ */
+public interface AudioSink extends AutoCloseable {
+    /** Rate samples are expected at by {@link #addSamples}. */
+    int getSampleRate();
+
+    void addSamples(float[] samples, int count);
+
+    /** Called after the last samples of each emulated frame. */
+    default void endFrame() {
+    }
+
+    /**
+     * Factor to scale the production sample rate by to keep a real-time device fed. Sinks that
+     * are not tied to a clock take samples at exactly the nominal rate.
+     */
+    default double getRateRatio() {
+        return 1.0;
+    }
+
+    /**
+     * Audio queued ahead of the listener, in 16-bit mono bytes at {@link #getSampleRate()}. Sinks
+     * that consume audio as fast as it is produced report 0, so nothing waits on them.
+     */
+    default int getBufferedBytes() {
+        return 0;
+    }
+
+    /**
+     * Fill, in the units of {@link #getBufferedBytes()}, that {@link #getRateRatio()} steers
+     * towards; at exactly this fill the ratio is 1. 0 for sinks without a clock.
+     */
+    default int getTargetBufferedBytes() {
+        return 0;
+    }
+
+    /** Capacity of the device buffer in bytes, 0 if there is no device. */
+    default int getBufferSize() {
+        return 0;
+    }
+
+    @Override
+    void close();
+}
@@ -0,0 +1,174 @@
+package com.sidpatchy.yolones;
+
+import com.sidpatchy.yolones.Hardware.APU;
+import com.sidpatchy.yolones.Hardware.BlipBuffer;
+import com.sidpatchy.yolones.Hardware.CPU6502;
+import com.sidpatchy.yolones.Hardware.CPUMemory;
+import com.sidpatchy.yolones.Hardware.Cartridge;
+import com.sidpatchy.yolones.Hardware.PPU;
+import com.sidpatchy.yolones.Hardware.PPUMemory;
+import com.sidpatchy.yolones.input.ControllerHandler;
+
+/**
+ * Wires the NES hardware together for a single cartridge and runs it a frame at a time.
+ * Windowing, audio output and pacing are left to the caller.
+ */
+public class Emulator {
+    public static final double CPU_FREQ = 1789773.0;
+    public static final int CYCLES_PER_FRAME = 29780; // Roughly 262 * 341 / 3
+    /** Upper limit for {@link #setOverclockScanlines}, doubling the CPU time per frame. */
+    public static final int MAX_OVERCLOCK_SCANLINES = 262;
+
+    private final Cartridge cart;
+    private final PPU ppu;
+    private final APU apu;
+    private final CPUMemory memory;
+    private final CPU6502 cpu;
+
+    private AudioSink audioSink;
+    private ControllerHandler controllerHandler;
+    private final float[] audioSamples = new float[4096];
+    private int overclockScanlines = 0;
+    private int overclockCycles = 0;
+
+    public Emulator(Cartridge cart) {
+        this.cart = cart;
+
+        PPUMemory ppuMemory = new PPUMemory(cart.getMapper(), cart.isMirrorVertical(), cart.isFourScreen());
+        this.ppu = new PPU(ppuMemory, cart.getMapper());
+        this.apu = new APU();
+        this.memory = new CPUMemory(cart, ppu, apu);
+        this.cpu = new CPU6502(memory);
+    }
+
+    /**
+     * Set the audio output. Without one the APU still runs but no samples are produced.
+     */
+    public void setAudioSink(AudioSink audioSink) {
+        this.audioSink = audioSink;
+        apu.setBlipBuffer(audioSink != null ? new BlipBuffer(CPU_FREQ, audioSink.getSampleRate()) : null);
+    }
+
+    /**
+     * Give the game extra CPU time each frame, so games that slow down when they run out of
+     * cycles can keep up. When vblank starts, whether or not NMI is enabled, the CPU runs this
+     * many scanlines' worth of extra cycles while the PPU and APU stand still, so video timing
+     * and audio pitch are unchanged. 0 (the default) is the real hardware.
+     */
+    public void setOverclockScanlines(int scanlines) {
+        if (scanlines < 0 || scanlines > MAX_OVERCLOCK_SCANLINES) {
+            throw new IllegalArgumentException("Overclock scanlines out of range: " + scanlines);
+        }
+        this.overclockScanlines = scanlines;
+        this.overclockCycles = scanlines * 341 / 3;
+    }
+
+    public int getOverclockScanlines() {
+        return overclockScanlines;
+    }
+
+    public void setControllerHandler(ControllerHandler controllerHandler) {
+        this.controllerHandler = controllerHandler;
+    }
+
+    /** Resets the CPU (sets PC to reset vector). */
+    public void reset() {
+        cpu.reset();
+    }
+
+    public boolean isRunning() {
+        return cpu.isRunning();
+    }
+
+    public void runFrame() {
+        runFrame(true);
+    }
+
+    /**
+     * Run one frame worth of CPU cycles.
+     *
+     * @param render when false the PPU skips pixel output for this frame. Timing, sprite 0 hit
+     *               and sprite overflow behave exactly as if the frame had been drawn.
+     */
+    public void runFrame(boolean render) {
+        ppu.setRenderEnabled(render);
+        if (audioSink != null) {
+            // Nudge the production rate to keep the sink's buffer from draining or overflowing.
+            // Read before the frame, straight after the caller has paced to the sink's target.
+            apu.getBlipBuffer().setRates(CPU_FREQ, audioSink.getSampleRate() * audioSink.getRateRatio());
+        }
+
+        int cyclesThisFrame = 0;
+        while (cyclesThisFrame < CYCLES_PER_FRAME) {
+            // Update input state (maybe not every instruction, but every frame is too slow)
+            if (controllerHandler != null && cyclesThisFrame % 100 == 0) {
+                controllerHandler.update();
+            }
+
+            int cycles = cpu.step();
+            cyclesThisFrame += cycles;
+
+            apu.run(cycles);
+
+            if (ppu.advance(cycles * 3) >= 0) {
+                cpu.triggerNMI();
+            }
+            // On the vblank flag rather than NMI, so games that poll $2002 get the time too
+            if (overclockCycles > 0 && ppu.getVblankDot() >= 0) {
+                runIdleScanlines();
+            }
+
+            if (cart.getMapper().hasIRQ() || apu.hasIRQ()) {
+                cpu.triggerIRQ();
+            }
+        }
+
+        // Output changes were recorded as band-limited steps (and per-channel stems, if attached),
+        // turn this frame's into samples
+        apu.endAudioFrame();
+        if (audioSink != null) {
+            BlipBuffer blip = apu.getBlipBuffer();
+            int count;
+            while ((count = blip.readSamples(audioSamples)) > 0) {
+                audioSink.addSamples(audioSamples, count);
+            }
+            audioSink.endFrame();
+        }
+    }
+
+    // Extra CPU time at the start of vblank. The PPU and APU don't advance and these cycles don't
+    // count towards the frame, so the game just sees a longer vblank.
+    private void runIdleScanlines() {
+        int idleCycles = 0;
+        while (idleCycles < overclockCycles) {
+            idleCycles += cpu.step();
+            if (cart.getMapper().hasIRQ() || apu.hasIRQ()) {
+                cpu.triggerIRQ();
+            }
+        }
+    }
+
+    public int[] getFramebuffer() {
+        return ppu.getFramebuffer();
+    }
+
+    public Cartridge getCartridge() {
+        return cart;
+    }
+
+    public CPU6502 getCPU() {
+        return cpu;
+    }
+
+    public CPUMemory getMemory() {
+        return memory;
+    }
+
+    public PPU getPPU() {
+        return ppu;
+    }
+
+    public APU getAPU() {
+        return apu;
+    }
+}
@@ -0,0 +1,234 @@
+package com.sidpatchy.yolones;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+
+/**
+ * Streams audio to a 16-bit mono PCM file, either WAV or headerless raw, for machines without a
+ * sound device. Nothing paces the emulator, so capture runs as fast as the emulation does.
+ * <p>
+ * Samples are converted into large direct buffers on the emulation thread and written by a
+ * background thread with {@link FileChannel} writes; the emulation thread only waits if every
+ * buffer is queued for writing. A CRC-32 of each frame's PCM is kept for regression comparison,
+ * see {@link #getFrameHashes()}.
+ */
+public class FileAudioSink implements AudioSink {
+    private static final Logger logger = LogManager.getLogger(FileAudioSink.class);
+
+    public enum Format { WAV, RAW }
+
+    private static final int BUFFER_BYTES = 1 << 20;  // ~11s of audio per write
+    private static final int BUFFER_COUNT = 4;
+    private static final int WAV_HEADER_BYTES = 44;
+    private static final ByteBuffer END = ByteBuffer.allocate(0); // Tells the writer to stop
+
+    private final Path file;
+    private final Format format;
+    private final int sampleRate;
+    private final FileChannel channel;
+
+    private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(BUFFER_COUNT);
+    private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(BUFFER_COUNT + 1);
+    private final Thread writer;
+    private volatile IOException writeError;
+
+    private ByteBuffer current;
+    private final short[] scratch = new short[4096];
+    private final CRC32 frameCrc = new CRC32();
+    private int[] frameHashes = new int[1024];
+    private int frames = 0;
+    private long dataBytes = 0;
+    private boolean closed = false;
+
+    /**
+     * Create (or truncate) the file, choosing the format by extension: ".wav" is WAV, anything
+     * else raw.
+     */
+    public FileAudioSink(Path file, int sampleRate) throws IOException {
+        this(file, sampleRate, file.getFileName().toString().toLowerCase().endsWith(".wav") ? Format.WAV : Format.RAW);
+    }
+
+    public FileAudioSink(Path file, int sampleRate, Format format) throws IOException {
+        this.file = file;
+        this.format = format;
+        this.sampleRate = sampleRate;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        if (format == Format.WAV) {
+            // Placeholder, the sizes are filled in on close
+            channel.write(wavHeader(0));
+        }
+
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            free.add(ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN));
+        }
+        current = free.remove();
+
+        writer = new Thread(this::writeLoop, "audio-file-writer");
+        writer.setDaemon(true);
+        writer.start();
+        logger.debug("Capturing audio to {} ({}, {} Hz)", file, format, sampleRate);
+    }
+
+    private ByteBuffer wavHeader(long dataBytes) {
+        int data = (int) Math.min(dataBytes, 0xFFFFFFFFL - 36);
+        ByteBuffer header = ByteBuffer.allocate(WAV_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[]{'R', 'I', 'F', 'F'}).putInt(36 + data).put(new byte[]{'W', 'A', 'V', 'E'});
+        header.put(new byte[]{'f', 'm', 't', ' '}).putInt(16)
+                .putShort((short) 1)            // PCM
+                .putShort((short) 1)            // Mono
+                .putInt(sampleRate)
+                .putInt(sampleRate * 2)         // Byte rate
+                .putShort((short) 2)            // Block align
+                .putShort((short) 16);          // Bits per sample
+        header.put(new byte[]{'d', 'a', 't', 'a'}).putInt(data);
+        return header.flip();
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                ByteBuffer buffer = full.take();
+                if (buffer == END) return;
+                try {
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                } catch (IOException e) {
+                    // Keep draining so the emulation thread never waits forever; the error surfaces there
+                    if (writeError == null) writeError = e;
+                }
+                buffer.clear();
+                free.put(buffer);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Hand the current buffer to the writer and take an empty one, waiting if all are queued
+    private void submit() {
+        current.flip();
+        try {
+            full.put(current);
+            current = free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing audio", e);
+        }
+    }
+
+    private void checkError() {
+        if (writeError != null) {
+            throw new UncheckedIOException("Writing " + file + " failed", writeError);
+        }
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Samples arriving after {@link #close()} are ignored, so a shutdown hook may close the sink
+     * while the emulation thread is still running.
+     */
+    @Override
+    public synchronized void addSamples(float[] samples, int count) {
+        if (closed) return;
+        checkError();
+        int offset = 0;
+        while (offset < count) {
+            int n = Math.min(Math.min(count - offset, scratch.length), current.remaining() / 2);
+            if (n == 0) {
+                submit();
+                continue;
+            }
+            int start = current.position();
+            PolyphaseResampler.toPcm16(samples, offset, n, scratch);
+            current.asShortBuffer().put(scratch, 0, n);
+            current.position(start + n * 2);
+            frameCrc.update(current.duplicate().position(start).limit(start + n * 2));
+            offset += n;
+        }
+        dataBytes += count * 2L;
+    }
+
+    /** Close the current frame's hash. */
+    @Override
+    public synchronized void endFrame() {
+        if (closed) return;
+        if (frames == frameHashes.length) {
+            frameHashes = Arrays.copyOf(frameHashes, frames * 2);
+        }
+        frameHashes[frames++] = (int) frameCrc.getValue();
+        frameCrc.reset();
+    }
+
+    /**
+     * CRC-32 of each completed frame's PCM bytes, in frame order. Two runs of the same ROM and
+     * input produce identical audio exactly when these match.
+     */
+    public synchronized int[] getFrameHashes() {
+        return Arrays.copyOf(frameHashes, frames);
+    }
+
+    /** Write the frame hashes as text, one eight-digit hex value per line. */
+    public synchronized void writeFrameHashes(Path path) throws IOException {
+        StringBuilder text = new StringBuilder(frames * 9);
+        for (int i = 0; i < frames; i++) {
+            text.append(String.format("%08x", frameHashes[i])).append('\n');
+        }
+        Files.writeString(path, text);
+    }
+
+    public long getBytesWritten() {
+        return dataBytes;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Write everything queued, finish the WAV header and close the file.
+     *
+     * @throws UncheckedIOException if any write failed
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            try {
+                if (current.position() > 0) submit();
+                full.put(END);
+                writer.join();
+                checkError();
+                if (format == Format.WAV) {
+                    channel.write(wavHeader(dataBytes), 0);
+                }
+            } finally {
+                channel.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Finishing " + file + " failed", e);
+        }
+        logger.debug("Captured {} frames ({} bytes) to {}", frames, dataBytes, file);
+    }
+}
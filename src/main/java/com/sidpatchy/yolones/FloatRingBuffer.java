@@ -0,0 +1,65 @@
+package com.sidpatchy.yolones;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single-producer/single-consumer ring of float samples. One thread may write and one
+ * other thread may read; neither ever blocks. The indices only grow, so full and empty are told
+ * apart by their difference.
+ */
+class FloatRingBuffer {
+    private final float[] data;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); // Next index to read, advanced by the consumer
+    private final AtomicLong tail = new AtomicLong(); // Next index to write, advanced by the producer
+
+    /**
+     * @param capacity number of samples, rounded up to a power of two
+     */
+    FloatRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.data = new float[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Producer side: copy up to len samples in.
+     *
+     * @return the number written, less than len if the ring is full
+     */
+    int write(float[] src, int offset, int len) {
+        long t = tail.get();
+        int count = Math.min(len, data.length - (int) (t - head.get()));
+        int start = (int) (t & mask);
+        int first = Math.min(count, data.length - start);
+        System.arraycopy(src, offset, data, start, first);
+        System.arraycopy(src, offset + first, data, 0, count - first);
+        tail.lazySet(t + count); // Publish the samples after they are stored
+        return count;
+    }
+
+    /**
+     * Consumer side: copy up to len samples out.
+     *
+     * @return the number read, less than len if the ring ran empty
+     */
+    int read(float[] dst, int offset, int len) {
+        long h = head.get();
+        int count = Math.min(len, (int) (tail.get() - h));
+        int start = (int) (h & mask);
+        int first = Math.min(count, data.length - start);
+        System.arraycopy(data, start, dst, offset, first);
+        System.arraycopy(data, 0, dst, offset + first, count - first);
+        head.lazySet(h + count); // Hand the slots back after they are copied
+        return count;
+    }
+
+    /** Samples currently buffered. Exact on either side, approximate from any other thread. */
+    int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    int capacity() {
+        return data.length;
+    }
+}
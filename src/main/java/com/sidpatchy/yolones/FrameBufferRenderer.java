@@ -7,6 +7,7 @@ import java.awt.image.BufferedImage;
 public class FrameBufferRenderer extends JPanel {
     private BufferedImage image;
     private int scale;
+    private volatile AudioMetrics audioOverlay; // Drawn over the picture when set
 
     public FrameBufferRenderer(int scale) {
         this.scale = scale;
@@ -22,6 +23,14 @@ public class FrameBufferRenderer extends JPanel {
         repaint();
     }
 
+    /**
+     * Show audio latency, underruns and write times over the picture, or hide them with null.
+     */
+    public void setAudioOverlay(AudioMetrics metrics) {
+        this.audioOverlay = metrics;
+        repaint();
+    }
+
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
@@ -31,6 +40,53 @@ public class FrameBufferRenderer extends JPanel {
         g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
                 RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
         g2d.drawImage(image, 0, 0, 256 * scale, 240 * scale, null);
+
+        AudioMetrics metrics = audioOverlay;
+        if (metrics != null) {
+            drawAudioOverlay(g2d, metrics);
+        }
+    }
+
+    private void drawAudioOverlay(Graphics2D g, AudioMetrics metrics) {
+        String[] lines = {
+                String.format("latency %.1f ms (avg %.1f)", metrics.getLatencyMs(), metrics.getAverageLatencyMs()),
+                String.format("underruns %d  overruns %d", metrics.getUnderruns(), metrics.getOverruns()),
+                String.format("write p50 %s  p99 %s  max %.1f ms",
+                        formatMicros(metrics.getWritePercentileMicros(0.5)),
+                        formatMicros(metrics.getWritePercentileMicros(0.99)), metrics.getMaxWriteMs()),
+        };
+        int[] history = metrics.getFillHistory();
+        int lineHeight = g.getFontMetrics().getHeight();
+        int graphHeight = 40;
+        int width = 260;
+        for (String line : lines) {
+            width = Math.max(width, g.getFontMetrics().stringWidth(line) + 8);
+        }
+        int height = lines.length * lineHeight + graphHeight + 12;
+
+        g.setColor(new Color(0, 0, 0, 160));
+        g.fillRect(4, 4, width, height);
+        g.setColor(Color.GREEN);
+        for (int i = 0; i < lines.length; i++) {
+            g.drawString(lines[i], 8, 4 + (i + 1) * lineHeight);
+        }
+
+        // Fill level over the last AudioMetrics.HISTORY frames, scaled to the largest seen
+        int max = 1;
+        for (int fill : history) {
+            max = Math.max(max, fill);
+        }
+        int graphTop = 8 + lines.length * lineHeight;
+        int graphWidth = width - 8;
+        for (int i = 0; i < history.length; i++) {
+            int x = 8 + i * graphWidth / AudioMetrics.HISTORY;
+            int barHeight = history[i] * graphHeight / max;
+            g.drawLine(x, graphTop + graphHeight, x, graphTop + graphHeight - barHeight);
+        }
+    }
+
+    private static String formatMicros(long micros) {
+        return micros >= 1000 ? String.format("%.1f ms", micros / 1000.0) : micros + " us";
     }
 
     public static JFrame createWindow(FrameBufferRenderer renderer) {
@@ -0,0 +1,186 @@
+package com.sidpatchy.yolones;
+
+import java.awt.DisplayMode;
+import java.awt.GraphicsEnvironment;
+import java.awt.HeadlessException;
+import java.awt.Toolkit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Waits between frames so emulation runs at the right speed.
+ * <p>
+ * Clock-driven sources keep an absolute deadline that advances by exactly one period per frame,
+ * so oversleeping one frame shortens the next wait instead of adding up. Waits park until shortly
+ * before the deadline and spin the rest, since parking can overshoot by tens of microseconds.
+ * <ul>
+ *     <li>{@link Source#WALL}: one NES frame (60.0988 Hz) per period of the system clock.</li>
+ *     <li>{@link Source#AUDIO}: waits while more than the sink's
+ *     {@link AudioSink#getTargetBufferedBytes() target} of audio is queued, for as long as the
+ *     device takes to play the excess. The audio device's clock sets the speed, and since the
+ *     sink's rate control aims for the same fill it stays neutral; falls back to WALL when the
+ *     sink has no device.</li>
+ *     <li>{@link Source#DISPLAY}: one frame per refresh of the default screen, so every refresh
+ *     shows a new frame. The audio rate control absorbs the small speed difference.</li>
+ * </ul>
+ * Every frame's interval is compared with the nominal period and the difference recorded in a
+ * jitter histogram.
+ */
+public class FramePacer {
+    public enum Source { WALL, AUDIO, DISPLAY }
+
+    public static final long NES_FRAME_NS = (long) (1_000_000_000 / 60.0988);
+    /** Time before the deadline at which parking stops and spinning starts. */
+    public static final long SPIN_NS = 250_000;
+    /** Deadlines further behind than this many periods are given up rather than caught up on. */
+    public static final int MAX_LAG_FRAMES = 3;
+    /** Jitter buckets: bucket 0 is under 1us, bucket i is [2^(i-1), 2^i) us, the last is open. */
+    public static final int JITTER_BUCKETS = 18;
+
+    private final Source source;
+    private final AudioSink audioSink;
+    private final long basePeriodNs;   // Period at normal speed
+    private long periodNs;
+
+    private long deadline;
+    private long lastFrame;
+
+    // Statistics
+    private final long[] jitterBuckets = new long[JITTER_BUCKETS];
+    private long frames = 0;
+    private long lateFrames = 0;
+    private double jitterSquares = 0;
+    private long maxJitterNs = 0;
+
+    /**
+     * @param audioSink audio output for {@link Source#AUDIO}, may be null for the other sources
+     */
+    public FramePacer(Source source, AudioSink audioSink) {
+        if (source == Source.AUDIO && (audioSink == null || audioSink.getBufferSize() == 0)) {
+            source = Source.WALL;
+        }
+        this.source = source;
+        this.audioSink = audioSink;
+        this.basePeriodNs = source == Source.DISPLAY ? displayPeriodNs() : NES_FRAME_NS;
+        this.periodNs = basePeriodNs;
+        reset();
+    }
+
+    /**
+     * Run frames speed times as often as normal. With {@link Source#AUDIO} the speed follows
+     * from how much audio each frame produces instead, this only sets the expected period.
+     */
+    public void setSpeed(double speed) {
+        periodNs = (long) (basePeriodNs / speed);
+        reset();
+    }
+
+    // Refresh period of the default screen, the NES frame period if it can't be found
+    private static long displayPeriodNs() {
+        try {
+            DisplayMode mode = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDisplayMode();
+            if (mode.getRefreshRate() != DisplayMode.REFRESH_RATE_UNKNOWN) {
+                return 1_000_000_000L / mode.getRefreshRate();
+            }
+        } catch (HeadlessException e) {
+            // No screen, fall through
+        }
+        return NES_FRAME_NS;
+    }
+
+    /** Start counting deadlines from now, e.g. after a pause. */
+    public void reset() {
+        deadline = System.nanoTime() + periodNs;
+        lastFrame = System.nanoTime();
+    }
+
+    /**
+     * Wait until the next frame is due.
+     */
+    public void pace() {
+        if (source == Source.AUDIO) {
+            // Play down the audio queued beyond the rate control's target
+            long excessBytes = audioSink.getBufferedBytes() - audioSink.getTargetBufferedBytes();
+            if (excessBytes > 0) {
+                waitUntil(System.nanoTime() + excessBytes * 500_000_000L / audioSink.getSampleRate());
+            }
+        } else {
+            long now = System.nanoTime();
+            if (now - deadline > MAX_LAG_FRAMES * periodNs) {
+                deadline = now; // Too far behind to catch up without a burst of frames
+                lateFrames++;
+            } else if (now > deadline) {
+                lateFrames++;
+            } else {
+                waitUntil(deadline);
+            }
+            deadline += periodNs;
+            if (source == Source.DISPLAY) {
+                Toolkit.getDefaultToolkit().sync();
+            }
+        }
+        recordInterval();
+    }
+
+    private static void waitUntil(long target) {
+        long remaining;
+        while ((remaining = target - System.nanoTime()) > SPIN_NS) {
+            LockSupport.parkNanos(remaining - SPIN_NS);
+        }
+        while (System.nanoTime() < target) {
+            Thread.onSpinWait();
+        }
+    }
+
+    private void recordInterval() {
+        long now = System.nanoTime();
+        long jitter = Math.abs(now - lastFrame - periodNs);
+        lastFrame = now;
+
+        int bucket = Math.min(JITTER_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(jitter / 1000));
+        jitterBuckets[bucket]++;
+        frames++;
+        jitterSquares += (double) jitter * jitter;
+        maxJitterNs = Math.max(maxJitterNs, jitter);
+    }
+
+    public Source getSource() {
+        return source;
+    }
+
+    public long getPeriodNs() {
+        return periodNs;
+    }
+
+    /** Frames whose interval differed from the period by each bucket's amount, see {@link #JITTER_BUCKETS}. */
+    public long[] getJitterHistogram() {
+        return jitterBuckets.clone();
+    }
+
+    /** Frames that were already late when pacing started. */
+    public long getLateFrames() {
+        return lateFrames;
+    }
+
+    /** Root mean square difference between frame intervals and the period. */
+    public double getRmsJitterMs() {
+        return frames == 0 ? 0 : Math.sqrt(jitterSquares / frames) / 1_000_000.0;
+    }
+
+    public double getMaxJitterMs() {
+        return maxJitterNs / 1_000_000.0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder histogram = new StringBuilder();
+        for (int i = 0; i < JITTER_BUCKETS; i++) {
+            if (jitterBuckets[i] > 0) {
+                histogram.append(histogram.length() > 0 ? " " : "")
+                        .append(i == JITTER_BUCKETS - 1 ? "more" : "<" + (1L << i) + "us")
+                        .append(':').append(jitterBuckets[i]);
+            }
+        }
+        return String.format("source=%s period=%.3fms late=%d rmsJitter=%.3fms maxJitter=%.3fms [%s]",
+                source, periodNs / 1_000_000.0, lateFrames, getRmsJitterMs(), getMaxJitterMs(), histogram);
+    }
+}
@@ -0,0 +1,123 @@
+package com.sidpatchy.yolones;
+
+/**
+ * Adaptive frameskip. Emulation always runs at full speed; when the host falls behind
+ * (frame work exceeding the frame budget, or the audio cushion running dry) up to
+ * {@code maxSkip} consecutive frames are emulated without producing pixels.
+ */
+public class FrameskipGovernor {
+    private final long baseBudgetNs;
+    private long frameBudgetNs;
+    private final int maxSkip;
+    private final AudioSink audioSink;
+
+    // Exponential moving average of per-frame work time (emulation + presentation, no sleeping)
+    private double averageFrameNs;
+    private long lastFrameNs;
+    private int consecutiveSkips = 0;
+
+    // Statistics
+    private long framesRendered = 0;
+    private long framesSkipped = 0;
+    private long skipsForTime = 0;
+    private long skipsForAudio = 0;
+    private int longestSkipRun = 0;
+
+    /**
+     * @param frameBudgetNs wall time available per guest frame
+     * @param maxSkip       maximum number of consecutive frames that may go unrendered
+     * @param audioSink     audio output used to detect an emptying buffer, may be null
+     */
+    public FrameskipGovernor(long frameBudgetNs, int maxSkip, AudioSink audioSink) {
+        this.baseBudgetNs = frameBudgetNs;
+        this.frameBudgetNs = frameBudgetNs;
+        this.maxSkip = maxSkip;
+        this.audioSink = audioSink;
+        this.averageFrameNs = frameBudgetNs / 2.0;
+    }
+
+    /**
+     * Frames are due speed times as often as normal, so each gets 1/speed of the base budget.
+     */
+    public void setSpeed(double speed) {
+        frameBudgetNs = (long) (baseBudgetNs / speed);
+    }
+
+    /**
+     * Decide whether the next frame should be rendered.
+     */
+    public boolean shouldRender() {
+        boolean overBudget = lastFrameNs > frameBudgetNs || averageFrameNs > frameBudgetNs;
+        boolean audioStarving = isAudioStarving();
+
+        if ((overBudget || audioStarving) && consecutiveSkips < maxSkip) {
+            consecutiveSkips++;
+            longestSkipRun = Math.max(longestSkipRun, consecutiveSkips);
+            framesSkipped++;
+            if (audioStarving) {
+                skipsForAudio++;
+            } else {
+                skipsForTime++;
+            }
+            return false;
+        }
+
+        consecutiveSkips = 0;
+        framesRendered++;
+        return true;
+    }
+
+    /**
+     * Record how long the last frame took to emulate and present, excluding any pacing sleep.
+     */
+    public void frameFinished(long workNs) {
+        lastFrameNs = workNs;
+        averageFrameNs += (workNs - averageFrameNs) / 8.0;
+    }
+
+    // When keeping up, the sink holds far more than MIN_CUSHION_BYTES, so only treat the
+    // audio as starving once less than half of that cushion is left.
+    private boolean isAudioStarving() {
+        if (audioSink == null || audioSink.getBufferSize() == 0) return false;
+        return audioSink.getBufferedBytes() < AudioPlayer.MIN_CUSHION_BYTES / 2;
+    }
+
+    public long getFramesRendered() {
+        return framesRendered;
+    }
+
+    public long getFramesSkipped() {
+        return framesSkipped;
+    }
+
+    /** Frames skipped because frame work exceeded the budget. */
+    public long getSkipsForTime() {
+        return skipsForTime;
+    }
+
+    /** Frames skipped because the audio buffer was running dry. */
+    public long getSkipsForAudio() {
+        return skipsForAudio;
+    }
+
+    public int getLongestSkipRun() {
+        return longestSkipRun;
+    }
+
+    public double getAverageFrameNs() {
+        return averageFrameNs;
+    }
+
+    /** Fraction of frames that were not rendered, 0.0 to 1.0. */
+    public double getSkipRatio() {
+        long total = framesRendered + framesSkipped;
+        return total == 0 ? 0.0 : (double) framesSkipped / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("rendered=%d skipped=%d (%.1f%%, time=%d audio=%d) longestRun=%d avgFrame=%.2fms",
+                framesRendered, framesSkipped, getSkipRatio() * 100, skipsForTime, skipsForAudio,
+                longestSkipRun, averageFrameNs / 1_000_000.0);
+    }
+}
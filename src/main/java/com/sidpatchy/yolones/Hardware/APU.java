@@ -7,13 +7,27 @@ public class APU {
         12, 16, 24, 18, 48, 20, 96, 22, 192, 24, 72, 26, 16, 28, 32, 30
     };
 
-    private static final int[][] DUTY_TABLE = {
-        {0, 1, 0, 0, 0, 0, 0, 0},
-        {0, 1, 1, 0, 0, 0, 0, 0},
-        {0, 1, 1, 1, 1, 0, 0, 0},
-        {1, 0, 0, 1, 1, 1, 1, 1}
+    // Indexed by duty * 8 + position
+    private static final int[] DUTY_TABLE = {
+        0, 1, 0, 0, 0, 0, 0, 0,
+        0, 1, 1, 0, 0, 0, 0, 0,
+        0, 1, 1, 1, 1, 0, 0, 0,
+        1, 0, 0, 1, 1, 1, 1, 1
     };
 
+    // Nonlinear mixer, indexed by pulse1 + pulse2 (0-30) and 3 * triangle + 2 * noise + DMC (0-202)
+    private static final float[] PULSE_MIX_TABLE = new float[31];
+    private static final float[] TND_MIX_TABLE = new float[203];
+
+    static {
+        for (int i = 1; i < PULSE_MIX_TABLE.length; i++) {
+            PULSE_MIX_TABLE[i] = 95.88f / (8128.0f / i + 100.0f);
+        }
+        for (int i = 1; i < TND_MIX_TABLE.length; i++) {
+            TND_MIX_TABLE[i] = 163.67f / (24329.0f / i + 100.0f);
+        }
+    }
+
     private static final int[] TRIANGLE_TABLE = {
         15, 14, 13, 12, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1, 0,
         0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15
@@ -107,10 +121,81 @@ public class APU {
     private boolean irqInhibit = false;
     private boolean frameIRQ = false;
 
+    // Band-limited output; null when the caller samples getSample() itself
+    private BlipBuffer blip;
+    // Per-channel output; null unless requested
+    private ChannelStems stems;
+    private int audioTime = 0;       // CPU cycles since the last endAudioFrame()
+    private float lastOutput = 0;
+    private boolean writePending = false; // A register was written since the last updateOutput()
+
     public APU() {
     }
 
+    /**
+     * Record every change of the mixed output into blip, timed in CPU cycles. Samples are then
+     * read from the buffer after each {@link #endAudioFrame()} instead of taken with getSample().
+     */
+    public void setBlipBuffer(BlipBuffer blip) {
+        this.blip = blip;
+        this.audioTime = 0;
+        this.lastOutput = 0;
+    }
+
+    public BlipBuffer getBlipBuffer() {
+        return blip;
+    }
+
+    /**
+     * Also record each channel's output into stems, alongside or instead of the blip buffer.
+     * Pass null to stop; without stems the APU does no per-channel work at all.
+     */
+    public void setChannelStems(ChannelStems stems) {
+        this.stems = stems;
+        if (blip == null) {
+            this.audioTime = 0;
+        }
+    }
+
+    public ChannelStems getChannelStems() {
+        return stems;
+    }
+
+    /**
+     * Close the current audio frame at the present cycle, making its samples readable.
+     */
+    public void endAudioFrame() {
+        if (blip == null && stems == null) return;
+        updateOutput();
+        if (blip != null) {
+            blip.endFrame(audioTime);
+        }
+        if (stems != null) {
+            stems.endFrame(audioTime);
+        }
+        audioTime = 0;
+    }
+
+    // Pass output changes on to the blip buffer and the stems
+    private void updateOutput() {
+        writePending = false;
+        int p1Out = pulse1Output();
+        int p2Out = pulse2Output();
+        int triOut = triangleOutput();
+        int noiseOut = noiseOutput();
+        float output = PULSE_MIX_TABLE[p1Out + p2Out] + TND_MIX_TABLE[3 * triOut + 2 * noiseOut];
+        if (blip != null && output != lastOutput) {
+            blip.addDelta(audioTime, output - lastOutput);
+            lastOutput = output;
+        }
+        if (stems != null) {
+            stems.update(audioTime, PULSE_MIX_TABLE[p1Out], PULSE_MIX_TABLE[p2Out],
+                    TND_MIX_TABLE[3 * triOut], TND_MIX_TABLE[2 * noiseOut], 0);
+        }
+    }
+
     public void writeRegister(int address, int value) {
+        writePending = true;
         switch (address) {
             case 0x4000:
                 p1Duty = (value >> 6) & 0x03;
@@ -263,6 +348,83 @@ public class APU {
 
         // Frame Counter
         frameCounterCycle++;
+        clockFrameStep();
+
+        if (blip != null || stems != null) {
+            audioTime++;
+            updateOutput();
+        }
+    }
+
+    /**
+     * Advance the APU by the given number of CPU cycles. Produces exactly the same state as calling
+     * tick() that many times, but channel timers are stepped arithmetically and the loop only stops
+     * at frame-sequencer steps.
+     */
+    public void run(int cycles) {
+        if (blip != null || stems != null) {
+            runBandLimited(cycles);
+            return;
+        }
+        while (cycles > 0) {
+            int untilStep = nextFrameStep() - frameCounterCycle;
+            if (cycles < untilStep) {
+                stepChannels(cycles);
+                frameCounterCycle += cycles;
+                return;
+            }
+            stepChannels(untilStep);
+            frameCounterCycle += untilStep;
+            cycles -= untilStep;
+            clockFrameStep();
+        }
+    }
+
+    // Like run(), but also stops wherever an audible channel's output can change, to time its delta
+    private void runBandLimited(int cycles) {
+        while (cycles > 0) {
+            int n = Math.min(cycles, Math.min(nextFrameStep() - frameCounterCycle, cyclesToOutputChange()));
+            if (writePending) {
+                n = 1; // tick() passes a register write on with the next cycle's output
+            }
+            stepChannels(n);
+            frameCounterCycle += n;
+            audioTime += n;
+            cycles -= n;
+            clockFrameStep();
+            updateOutput();
+        }
+    }
+
+    // Cycles until the next timer reload of a channel that is currently audible
+    private int cyclesToOutputChange() {
+        int next = Integer.MAX_VALUE;
+        if (p1Enabled && p1LengthCounter > 0 && !p1SweepMute(p1TimerReload)) {
+            next = 2 * (p1Timer + 1) - p1TimerDivider;
+        }
+        if (p2Enabled && p2LengthCounter > 0 && !p2SweepMute(p2TimerReload)) {
+            next = Math.min(next, 2 * (p2Timer + 1) - p2TimerDivider);
+        }
+        if (triEnabled && triLengthCounter > 0 && triLinearCounter > 0 && triTimerReload > 2) {
+            next = Math.min(next, triTimer + 1);
+        }
+        if (noiseEnabled && noiseLengthCounter > 0) {
+            next = Math.min(next, noiseTimer + 1);
+        }
+        return next;
+    }
+
+    // Next frameCounterCycle value with a sequencer step
+    private int nextFrameStep() {
+        if (frameCounterCycle < 3728) return 3728;
+        if (frameCounterCycle < 7456) return 7456;
+        if (frameCounterCycle < 11185) return 11185;
+        if (frameCounterCycle < 14914) return 14914;
+        if (frameCounterMode == 5 && frameCounterCycle < 18640) return 18640;
+        return Integer.MAX_VALUE;
+    }
+
+    private void clockFrameStep() {
         if (frameCounterMode == 4) {
             // 4-step sequence
             switch (frameCounterCycle) {
@@ -318,6 +480,49 @@ public class APU {
         }
     }
 
+    // Step every channel timer by n CPU cycles. Nothing that gates a timer (length, linear
+    // counter, reload values) changes between frame-sequencer steps, so each timer's reloads
+    // can be counted instead of simulated.
+    private void stepChannels(int n) {
+        // Pulse timers clock every 2 CPU cycles
+        int clocks = (p1TimerDivider + n) >> 1;
+        p1TimerDivider = (p1TimerDivider + n) & 1;
+        p1DutyPos = (p1DutyPos + timerReloads(p1Timer, p1TimerReload, clocks)) % 8;
+        p1Timer = timerAfter(p1Timer, p1TimerReload, clocks);
+
+        clocks = (p2TimerDivider + n) >> 1;
+        p2TimerDivider = (p2TimerDivider + n) & 1;
+        p2DutyPos = (p2DutyPos + timerReloads(p2Timer, p2TimerReload, clocks)) % 8;
+        p2Timer = timerAfter(p2Timer, p2TimerReload, clocks);
+
+        // Triangle timer clocks every CPU cycle
+        if (triLengthCounter > 0 && triLinearCounter > 0) {
+            triStep = (triStep + timerReloads(triTimer, triTimerReload, n)) % 32;
+        }
+        triTimer = timerAfter(triTimer, triTimerReload, n);
+
+        // Noise timer clocks every CPU cycle, the LFSR shifts once per reload
+        int shifts = timerReloads(noiseTimer, noiseTimerReload, n);
+        int tap = noiseMode ? 6 : 1;
+        for (int i = 0; i < shifts; i++) {
+            int feedback = (noiseShiftRegister ^ (noiseShiftRegister >> tap)) & 0x01;
+            noiseShiftRegister = (noiseShiftRegister >> 1) | (feedback << 14);
+        }
+        noiseTimer = timerAfter(noiseTimer, noiseTimerReload, n);
+    }
+
+    // How often a down-counting timer reloads when clocked n times from the given value
+    private static int timerReloads(int timer, int reload, int clocks) {
+        if (clocks <= timer) return 0;
+        return 1 + (clocks - timer - 1) / (reload + 1);
+    }
+
+    // The timer's value after being clocked n times
+    private static int timerAfter(int timer, int reload, int clocks) {
+        if (clocks <= timer) return timer - clocks;
+        return reload - (clocks - timer - 1) % (reload + 1);
+    }
+
     private void p2Divider() {
         p2TimerDivider = (p2TimerDivider + 1) % 2;
         if (p2TimerDivider == 0) {
@@ -461,47 +666,37 @@ public class APU {
     }
 
     public float getSample() {
-        // Output from Pulse 1
-        int p1Out = 0;
-        int p1Vol = p1ConstantVolume ? p1Volume : p1EnvDecay;
+        int dmcOut = 0; // No DMC channel yet
+        return PULSE_MIX_TABLE[pulse1Output() + pulse2Output()]
+                + TND_MIX_TABLE[3 * triangleOutput() + 2 * noiseOutput() + dmcOut];
+    }
+
+    private int pulse1Output() {
         if (p1Enabled && p1LengthCounter > 0 && !p1SweepMute(p1TimerReload)) {
-            p1Out = DUTY_TABLE[p1Duty][p1DutyPos] * p1Vol;
+            return DUTY_TABLE[(p1Duty << 3) | p1DutyPos] * (p1ConstantVolume ? p1Volume : p1EnvDecay);
         }
+        return 0;
+    }
 
-        // Output from Pulse 2
-        int p2Out = 0;
-        int p2Vol = p2ConstantVolume ? p2Volume : p2EnvDecay;
+    private int pulse2Output() {
         if (p2Enabled && p2LengthCounter > 0 && !p2SweepMute(p2TimerReload)) {
-            p2Out = DUTY_TABLE[p2Duty][p2DutyPos] * p2Vol;
+            return DUTY_TABLE[(p2Duty << 3) | p2DutyPos] * (p2ConstantVolume ? p2Volume : p2EnvDecay);
         }
+        return 0;
+    }
 
-        // Output from Triangle
-        int triOut = 0;
+    private int triangleOutput() {
         if (triEnabled && triLengthCounter > 0 && triLinearCounter > 0 && triTimerReload > 2) {
-            triOut = TRIANGLE_TABLE[triStep];
+            return TRIANGLE_TABLE[triStep];
         }
+        return 0;
+    }
 
-        // Output from Noise
-        int noiseOut = 0;
-        int nVol = noiseConstantVolume ? noiseVolume : noiseEnvDecay;
+    private int noiseOutput() {
         if (noiseEnabled && noiseLengthCounter > 0 && (noiseShiftRegister & 0x01) == 0) {
-            noiseOut = nVol;
-        }
-
-        // Simple mixer (approximation)
-        float pulseSum = p1Out + p2Out;
-        float pulseOut = 0;
-        if (pulseSum != 0) {
-            pulseOut = 95.88f / (8128.0f / pulseSum + 100.0f);
+            return noiseConstantVolume ? noiseVolume : noiseEnvDecay;
         }
-
-        float tndSum = triOut / 8227.0f + noiseOut / 12241.0f; // DMC is 0
-        float tndOut = 0;
-        if (tndSum != 0) {
-            tndOut = 159.79f / (1.0f / tndSum + 100.0f);
-        }
-
-        return pulseOut + tndOut;
+        return 0;
     }
 
     public boolean hasIRQ() {
@@ -0,0 +1,109 @@
+package com.sidpatchy.yolones.Hardware;
+
+import com.sidpatchy.yolones.Hardware.Mappers.Mapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a mapper's battery-backed PRG-RAM in a memory-mapped save file.
+ * <p>
+ * The CPU keeps writing to the mapper's plain array; the mapper only counts the writes. A shared
+ * background thread copies the RAM into the mapping and forces it to disk every
+ * {@link #FLUSH_INTERVAL_MS} ms when the count has moved. {@link #close()} makes the final copy
+ * and must be called once the emulation thread has stopped writing, from that thread or after it.
+ */
+public class BatterySave implements Closeable {
+    private static final Logger logger = LogManager.getLogger(BatterySave.class);
+    public static final long FLUSH_INTERVAL_MS = 1000;
+
+    private static final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "battery-save-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path file;
+    private final Mapper mapper;
+    private final byte[] ram;
+    private final MappedByteBuffer mapped;
+    private final ScheduledFuture<?> task;
+    private int flushedWrites;   // Mapper's write count when the RAM was last copied
+
+    private BatterySave(Path file, Mapper mapper, byte[] ram, MappedByteBuffer mapped) {
+        this.file = file;
+        this.mapper = mapper;
+        this.ram = ram;
+        this.mapped = mapped;
+        this.flushedWrites = mapper.getPrgRamWrites();
+        this.task = flusher.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Map the save file (creating it if needed) and load its contents into the mapper's PRG-RAM.
+     *
+     * @throws IllegalArgumentException if the mapper has no PRG-RAM
+     */
+    public static BatterySave open(Path file, Mapper mapper) throws IOException {
+        byte[] ram = mapper.getPrgRAM();
+        if (ram == null) {
+            throw new IllegalArgumentException("Mapper has no PRG-RAM to save");
+        }
+
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            boolean existing = channel.size() > 0;
+            // Mapping past the end grows the file; the mapping outlives the channel
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, ram.length);
+            if (existing) {
+                mapped.get(0, ram);
+            }
+        }
+        logger.debug("Battery save {} mapped ({} bytes)", file, ram.length);
+        return new BatterySave(file, mapper, ram, mapped);
+    }
+
+    /**
+     * Write PRG-RAM to the save file if it was written since the last flush. Safe from any thread.
+     * <p>
+     * Bytes stored while the copy runs may or may not make it into this flush, but they move the
+     * write count past the one read here, so the next flush copies again.
+     */
+    public void flush() {
+        flush(false);
+    }
+
+    private synchronized void flush(boolean always) {
+        int writes = mapper.getPrgRamWrites();
+        if (writes == flushedWrites && !always) return;
+        mapped.put(0, ram);
+        mapped.force();
+        flushedWrites = writes;
+    }
+
+    /**
+     * Stop the periodic flushing and write PRG-RAM to the save file. Call only once the CPU has
+     * stopped writing, so the copy is complete.
+     */
+    @Override
+    public void close() {
+        task.cancel(false);
+        flush(true);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+}
@@ -0,0 +1,121 @@
+package com.sidpatchy.yolones.Hardware;
+
+import java.util.Arrays;
+
+/**
+ * Band-limited synthesis of a step waveform. The APU's output is a sum of steps (it only changes
+ * when a channel's level changes), so instead of sampling it every cycle each change is recorded as
+ * a delta at its clock time. A delta is spread over the neighbouring output samples with a
+ * windowed-sinc impulse and the samples are integrated when read. The output therefore has no
+ * content above the output Nyquist frequency, where plain decimation would alias.
+ * <p>
+ * Usage per frame: {@link #addDelta} for each change, {@link #endFrame} with the frame's length in
+ * clocks, then {@link #readSamples}.
+ */
+public class BlipBuffer {
+    private static final int PHASES = 64;       // Sub-sample resolution of delta positions
+    private static final int WIDTH = 16;        // Impulse length in output samples
+    private static final int HALF = WIDTH / 2;  // Also the output delay in samples
+    private static final double CUTOFF = 0.45;  // Fraction of the output sample rate
+
+    // Impulse response for each sub-sample phase, each summing to exactly 1
+    private static final double[][] KERNELS = buildKernels();
+
+    private double samplesPerClock;
+    private final double[] buffer;
+    private double frameStart = 0;   // Sample position of clock 0 of the current frame
+    private int available = 0;       // Complete samples ready to read
+    private double integrator = 0;
+
+    /**
+     * @param clockRate  rate of the clock deltas are timed with (the CPU clock for the APU)
+     * @param sampleRate output sample rate
+     */
+    public BlipBuffer(double clockRate, double sampleRate) {
+        this.samplesPerClock = sampleRate / clockRate;
+        // A quarter second of samples plus the impulse tail; callers read every frame
+        this.buffer = new double[(int) (sampleRate / 4) + WIDTH];
+    }
+
+    /**
+     * Change the conversion ratio, e.g. to follow an audio device's clock. Takes effect for the
+     * next frame; call between {@link #endFrame} and the next {@link #addDelta}.
+     */
+    public void setRates(double clockRate, double sampleRate) {
+        this.samplesPerClock = sampleRate / clockRate;
+    }
+
+    private static double[][] buildKernels() {
+        double[][] kernels = new double[PHASES][WIDTH];
+        for (int phase = 0; phase < PHASES; phase++) {
+            double fraction = (double) phase / PHASES;
+            double sum = 0;
+            for (int k = 0; k < WIDTH; k++) {
+                double x = k - HALF - fraction + 1; // Distance from the delayed step, in samples
+                double sinc = x == 0 ? 1 : Math.sin(Math.PI * 2 * CUTOFF * x) / (Math.PI * 2 * CUTOFF * x);
+                double w = Math.abs(x) >= HALF ? 0
+                        : 0.42 + 0.5 * Math.cos(Math.PI * x / HALF) + 0.08 * Math.cos(2 * Math.PI * x / HALF);
+                kernels[phase][k] = sinc * w;
+                sum += kernels[phase][k];
+            }
+            for (int k = 0; k < WIDTH; k++) {
+                kernels[phase][k] /= sum;
+            }
+        }
+        return kernels;
+    }
+
+    /**
+     * Record that the waveform changed by delta at the given clock of the current frame.
+     */
+    public void addDelta(int time, float delta) {
+        double position = frameStart + time * samplesPerClock;
+        int index = (int) position;
+        if (index + WIDTH > buffer.length) return; // Frame far longer than the buffer, drop it
+
+        double[] kernel = KERNELS[(int) ((position - index) * PHASES)];
+        for (int k = 0; k < WIDTH; k++) {
+            buffer[index + k] += delta * kernel[k];
+        }
+    }
+
+    /**
+     * End the current frame after the given number of clocks; its samples become readable.
+     */
+    public void endFrame(int time) {
+        frameStart = Math.min(frameStart + time * samplesPerClock, buffer.length - WIDTH);
+        available = (int) frameStart;
+    }
+
+    public int samplesAvailable() {
+        return available;
+    }
+
+    /**
+     * Move up to out.length samples into out.
+     *
+     * @return the number of samples written
+     */
+    public int readSamples(float[] out) {
+        int count = Math.min(out.length, available);
+        for (int i = 0; i < count; i++) {
+            integrator += buffer[i];
+            out[i] = (float) integrator;
+        }
+
+        // Keep the unread samples and the impulse tails of the last deltas
+        int keep = available - count + WIDTH;
+        System.arraycopy(buffer, count, buffer, 0, keep);
+        Arrays.fill(buffer, keep, keep + count, 0);
+        available -= count;
+        frameStart -= count;
+        return count;
+    }
+
+    public void clear() {
+        Arrays.fill(buffer, 0);
+        frameStart = 0;
+        available = 0;
+        integrator = 0;
+    }
+}
@@ -1285,6 +1285,26 @@ public class CPU6502 {
 
     public boolean isRunning() { return running; }
 
+    public int getPC() { return PC; }
+
+    public void setRegisters(int a, int x, int y) {
+        A = a & 0xFF;
+        X = x & 0xFF;
+        Y = y & 0xFF;
+    }
+
+    /**
+     * Start executing a subroutine as if it had been called with JSR: the stack holds
+     * returnAddress - 1, so its RTS continues at returnAddress. Used to call into code that has no
+     * caller of its own, like an NSF's INIT and PLAY routines.
+     */
+    public void callSubroutine(int address, int returnAddress) {
+        int pushed = (returnAddress - 1) & 0xFFFF;
+        memory.write(0x0100 + SP--, (pushed >> 8) & 0xFF);
+        memory.write(0x0100 + SP--, pushed & 0xFF);
+        PC = address & 0xFFFF;
+    }
+
     private void branch(boolean condition) {
         int offset = (byte) memory.read(PC++);
         if (condition) {
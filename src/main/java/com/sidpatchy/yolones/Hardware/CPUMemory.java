@@ -103,7 +103,15 @@ public class CPUMemory {
 
         } else {
             // Cartridge space (might have RAM)
-            cartridge.write(address, value);
+            if (address >= 0x8000) {
+                // Mapper register write, CHR banks or mirroring may change. Draw the
+                // pixels the PPU has already passed with the old banks first.
+                ppu.catchUp();
+                cartridge.write(address, value);
+                ppu.mapperStateChanged();
+            } else {
+                cartridge.write(address, value);
+            }
         }
     }
 
@@ -0,0 +1,149 @@
+package com.sidpatchy.yolones.Hardware;
+
+import java.util.Arrays;
+
+/**
+ * Per-channel audio output of the APU, one stream per channel, with RMS and peak meters.
+ * <p>
+ * Each channel's level is the value it would contribute to the mix if it were playing alone, so
+ * the stems are in the same units as the mixed output (they don't sum to it exactly, the mixer is
+ * not linear). A stem sample is the average level over its sample period, which is exact for the
+ * step-shaped channel outputs and keeps most of the aliasing out of low output rates.
+ * <p>
+ * Attach with {@link APU#setChannelStems}; after each {@link APU#endAudioFrame()} the frame's
+ * samples can be read with {@link #read} and its meters with {@link #getRms}/{@link #getPeak}.
+ */
+public class ChannelStems {
+    public static final int PULSE1 = 0;
+    public static final int PULSE2 = 1;
+    public static final int TRIANGLE = 2;
+    public static final int NOISE = 3;
+    public static final int DMC = 4;
+    public static final int CHANNELS = 5;
+
+    private final double clocksPerSample;
+
+    private final float[] levels = new float[CHANNELS];
+    private final double[] area = new double[CHANNELS]; // Level * clocks since the last sample boundary
+    private int lastTime = 0;               // Clock of the last update in the current frame
+    private double nextSample;              // Clock of the next sample boundary in the current frame
+
+    private float[] current = new float[1024 * CHANNELS]; // Interleaved samples of the current frame
+    private int currentCount = 0;
+    private float[] completed = new float[1024 * CHANNELS];
+    private int completedCount = 0;
+
+    private final float[] rms = new float[CHANNELS];
+    private final float[] peak = new float[CHANNELS];
+
+    /**
+     * @param clockRate  rate of the clock levels are timed with (the CPU clock for the APU)
+     * @param sampleRate stem sample rate
+     */
+    public ChannelStems(double clockRate, double sampleRate) {
+        this.clocksPerSample = clockRate / sampleRate;
+        this.nextSample = clocksPerSample;
+    }
+
+    /**
+     * Record the channels' levels from the given clock of the current frame on.
+     */
+    void update(int time, float pulse1, float pulse2, float triangle, float noise, float dmc) {
+        advance(time);
+        levels[PULSE1] = pulse1;
+        levels[PULSE2] = pulse2;
+        levels[TRIANGLE] = triangle;
+        levels[NOISE] = noise;
+        levels[DMC] = dmc;
+    }
+
+    // Integrate the current levels up to time, emitting every sample whose period ended
+    private void advance(int time) {
+        double t = lastTime;
+        while (nextSample <= time) {
+            if (currentCount * CHANNELS == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            double span = nextSample - t;
+            int base = currentCount * CHANNELS;
+            for (int c = 0; c < CHANNELS; c++) {
+                current[base + c] = (float) ((area[c] + levels[c] * span) / clocksPerSample);
+                area[c] = 0;
+            }
+            currentCount++;
+            t = nextSample;
+            nextSample += clocksPerSample;
+        }
+        double span = time - t;
+        for (int c = 0; c < CHANNELS; c++) {
+            area[c] += levels[c] * span;
+        }
+        lastTime = time;
+    }
+
+    /**
+     * End the current frame after the given number of clocks: its samples become readable and
+     * the meters are updated.
+     */
+    void endFrame(int time) {
+        advance(time);
+        nextSample -= time;
+        lastTime = 0;
+
+        for (int c = 0; c < CHANNELS; c++) {
+            double sumSquares = 0;
+            float max = 0;
+            for (int i = c; i < currentCount * CHANNELS; i += CHANNELS) {
+                float v = current[i];
+                sumSquares += v * v;
+                max = Math.max(max, Math.abs(v));
+            }
+            rms[c] = currentCount == 0 ? 0 : (float) Math.sqrt(sumSquares / currentCount);
+            peak[c] = max;
+        }
+
+        float[] swap = completed;
+        completed = current;
+        completedCount = currentCount;
+        current = swap;
+        currentCount = 0;
+    }
+
+    /** Samples per channel in the last completed frame. */
+    public int samplesAvailable() {
+        return completedCount;
+    }
+
+    /**
+     * Copy the last completed frame into out, interleaved as {@link #CHANNELS} values per sample
+     * in channel order.
+     *
+     * @return the number of samples per channel written, at most out.length / CHANNELS
+     */
+    public int read(float[] out) {
+        int count = Math.min(completedCount, out.length / CHANNELS);
+        System.arraycopy(completed, 0, out, 0, count * CHANNELS);
+        return count;
+    }
+
+    /** Root mean square of the channel over the last completed frame. */
+    public float getRms(int channel) {
+        return rms[channel];
+    }
+
+    /** Largest level of the channel over the last completed frame. */
+    public float getPeak(int channel) {
+        return peak[channel];
+    }
+
+    public void clear() {
+        Arrays.fill(levels, 0);
+        Arrays.fill(area, 0);
+        Arrays.fill(rms, 0);
+        Arrays.fill(peak, 0);
+        lastTime = 0;
+        nextSample = clocksPerSample;
+        currentCount = 0;
+        completedCount = 0;
+    }
+}
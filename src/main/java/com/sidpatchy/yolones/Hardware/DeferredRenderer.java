@@ -0,0 +1,255 @@
+package com.sidpatchy.yolones.Hardware;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Records the inputs of each visible scanline span on the emulation thread and rasterizes the
+ * finished frame on a ForkJoin pool while the CPU emulates the next one.
+ * <p>
+ * Frames are double buffered: the pool draws into a back buffer while {@link #getFramebuffer()}
+ * keeps handing out the last completed frame, so presenting never waits for rasterization. The
+ * buffers swap when a frame completes, and the back buffer starts as a copy of the front so
+ * lines without recorded spans keep their previous pixels, as they would when drawing
+ * synchronously.
+ * <p>
+ * A span is the run of pixels the PPU would have drawn synchronously between two state changes
+ * (usually the whole line). It is described by the register values in effect (line-start v,
+ * fine X, PPUCTRL, PPUMASK), a copy of OAM and a snapshot of VRAM as seen through the mapper:
+ * pattern tables for the current CHR banks, nametables with mirroring resolved, and the palette.
+ * Snapshots and OAM copies are only taken again when their contents have changed, so a typical
+ * frame shares one of each across all of its spans.
+ */
+class DeferredRenderer {
+    private static final int SPANS_PER_TASK = 16;
+
+    private final ForkJoinPool pool;
+    private int[] front;  // Last completed frame
+    private int[] back;   // Being drawn while a frame is pending
+
+    private Frame recording = new Frame();
+    private Frame rasterizing = new Frame();
+    private ForkJoinTask<?> pending;
+
+    private final ArrayDeque<VramSnapshot> freeSnapshots = new ArrayDeque<>();
+    private final ArrayDeque<int[]> freeOamCopies = new ArrayDeque<>();
+    private VramSnapshot currentSnapshot;
+    private int snapshotGeneration;
+    private int[] currentOam;
+    private int oamCopyGeneration;
+
+    /**
+     * @param framebuffer current picture, becomes the first front buffer
+     */
+    DeferredRenderer(ForkJoinPool pool, int[] framebuffer) {
+        this.pool = pool;
+        this.front = framebuffer;
+        this.back = framebuffer.clone();
+    }
+
+    /**
+     * Capture what is needed to draw pixels [from, to) of line y later.
+     */
+    void record(int y, int from, int to, int lineV, int x, int ppuCtrl, int ppuMask,
+                int[] oam, int oamGeneration, PPUMemory memory) {
+        if (currentSnapshot == null || memory.getGeneration() != snapshotGeneration) {
+            currentSnapshot = freeSnapshots.isEmpty() ? new VramSnapshot() : freeSnapshots.pop();
+            currentSnapshot.capture(memory);
+            snapshotGeneration = memory.getGeneration();
+        }
+        if (currentOam == null || oamGeneration != oamCopyGeneration) {
+            currentOam = freeOamCopies.isEmpty() ? new int[256] : freeOamCopies.pop();
+            System.arraycopy(oam, 0, currentOam, 0, 256);
+            oamCopyGeneration = oamGeneration;
+        }
+        if (!recording.snapshots.contains(currentSnapshot)) {
+            recording.snapshots.add(currentSnapshot);
+        }
+        if (!recording.oamCopies.contains(currentOam)) {
+            recording.oamCopies.add(currentOam);
+        }
+
+        SpanRecord span = recording.addSpan();
+        span.y = y;
+        span.from = from;
+        span.to = to;
+        span.lineV = lineV;
+        span.x = x;
+        span.ppuCtrl = ppuCtrl;
+        span.ppuMask = ppuMask;
+        span.vram = currentSnapshot;
+        span.oam = currentOam;
+    }
+
+    /**
+     * Hand the recorded frame to the pool and start recording the next one.
+     */
+    void finishFrame() {
+        awaitFrame();
+
+        Frame finished = recording;
+        recording = rasterizing;
+        rasterizing = finished;
+        recycle(recording, finished);
+
+        if (finished.spanCount > 0) {
+            pending = pool.submit(new RasterTask(finished, 0, finished.spanCount, front, back));
+        }
+    }
+
+    /**
+     * The most recent frame whose rasterization has completed, without waiting. It stays intact
+     * until the next frame completes.
+     */
+    int[] getFramebuffer() {
+        if (pending != null && pending.isDone()) {
+            completeFrame();
+        }
+        return front;
+    }
+
+    /**
+     * Block until the last submitted frame is in the front buffer.
+     */
+    void awaitFrame() {
+        if (pending != null) {
+            completeFrame();
+        }
+    }
+
+    private void completeFrame() {
+        pending.join();
+        pending = null;
+        int[] drawn = back;
+        back = front;
+        front = drawn;
+    }
+
+    // Return snapshots and OAM copies of a rasterized frame to the free lists, unless the frame
+    // now in flight or the next recorded span still uses them.
+    private void recycle(Frame frame, Frame inFlight) {
+        for (VramSnapshot snapshot : frame.snapshots) {
+            if (snapshot != currentSnapshot && !inFlight.snapshots.contains(snapshot)) {
+                freeSnapshots.push(snapshot);
+            }
+        }
+        for (int[] copy : frame.oamCopies) {
+            if (copy != currentOam && !inFlight.oamCopies.contains(copy)) {
+                freeOamCopies.push(copy);
+            }
+        }
+        frame.snapshots.clear();
+        frame.oamCopies.clear();
+        for (int i = 0; i < frame.spanCount; i++) {
+            frame.spans[i].vram = null;
+            frame.spans[i].oam = null;
+        }
+        frame.spanCount = 0;
+    }
+
+    private static class RasterTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Frame frame;
+        private final int from;
+        private final int to;
+        private final int[] previous;    // Copied into framebuffer first; only set on the root task
+        private final int[] framebuffer;
+
+        RasterTask(Frame frame, int from, int to, int[] previous, int[] framebuffer) {
+            this.frame = frame;
+            this.from = from;
+            this.to = to;
+            this.previous = previous;
+            this.framebuffer = framebuffer;
+        }
+
+        @Override
+        protected void compute() {
+            if (previous != null) {
+                System.arraycopy(previous, 0, framebuffer, 0, framebuffer.length);
+            }
+            if (to - from > SPANS_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new RasterTask(frame, from, mid, null, framebuffer),
+                        new RasterTask(frame, mid, to, null, framebuffer));
+                return;
+            }
+
+            // Spans never overlap, so they can be drawn in any order. Lines that were not
+            // recorded (render-skip) keep their old pixels.
+            int[] bgPixels = new int[256];
+            for (int i = from; i < to; i++) {
+                SpanRecord span = frame.spans[i];
+                PPU.rasterizeSpan(span.vram, span.y, span.from, span.to, span.lineV, span.x,
+                        span.ppuCtrl, span.ppuMask, span.oam, framebuffer, bgPixels);
+            }
+        }
+    }
+
+    private static class Frame {
+        SpanRecord[] spans = new SpanRecord[0];
+        int spanCount = 0;
+        final List<VramSnapshot> snapshots = new ArrayList<>();
+        final List<int[]> oamCopies = new ArrayList<>();
+
+        SpanRecord addSpan() {
+            if (spanCount == spans.length) {
+                int oldLength = spans.length;
+                spans = Arrays.copyOf(spans, Math.max(256, oldLength * 2));
+                for (int i = oldLength; i < spans.length; i++) {
+                    spans[i] = new SpanRecord();
+                }
+            }
+            return spans[spanCount++];
+        }
+    }
+
+    private static class SpanRecord {
+        int y;
+        int from;
+        int to;
+        int lineV;
+        int x;
+        int ppuCtrl;
+        int ppuMask;
+        VramSnapshot vram;
+        int[] oam;
+    }
+
+    /**
+     * Immutable (once captured) copy of everything the line renderer reads from VRAM.
+     */
+    private static class VramSnapshot implements VramReader {
+        private final byte[] patterns = new byte[0x2000];
+        private final byte[] nametables = new byte[0x1000];
+        private final int[] palette = new int[32];
+
+        void capture(PPUMemory memory) {
+            memory.copyPatternTables(patterns);
+            for (int i = 0; i < nametables.length; i++) {
+                nametables[i] = (byte) memory.read(0x2000 + i);
+            }
+            for (int i = 0; i < palette.length; i++) {
+                palette[i] = memory.read(0x3F00 + i);
+            }
+        }
+
+        @Override
+        public int read(int addr) {
+            addr &= 0x3FFF;
+            if (addr < 0x2000) {
+                return patterns[addr] & 0xFF;
+            } else if (addr < 0x3F00) {
+                return nametables[addr & 0x0FFF] & 0xFF;
+            } else {
+                return palette[addr & 0x1F];
+            }
+        }
+    }
+}
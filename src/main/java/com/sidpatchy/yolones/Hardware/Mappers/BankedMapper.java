@@ -0,0 +1,139 @@
+package com.sidpatchy.yolones.Hardware.Mappers;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Base for mappers that switch PRG ROM in 8KB windows and CHR in 1KB windows.
+ * Bank numbers are turned into byte offsets (wrapped to the ROM size) when a bank register is
+ * written, so every read is just a table lookup and a mask.
+ */
+public abstract class BankedMapper implements Mapper {
+    protected final byte[] prgROM;
+    protected final byte[] chrROM;   // CHR-ROM, or the cart's CHR-RAM when chrRAM is set
+    protected final boolean chrRAM;
+    protected final byte[] prgRAM; // $6000-$7FFF work RAM, null if the board has none
+
+    // Offset into prgROM of the 8KB windows at $8000, $A000, $C000 and $E000
+    protected final int[] prgOffsets = new int[4];
+    // Offset into chrROM of the 1KB windows at PPU $0000, $0400, ... $1C00
+    protected final int[] chrOffsets = new int[8];
+
+    private final int prgBankCount;  // In 8KB units
+    private final int chrBankCount;  // In 1KB units
+    private int chrBankGeneration = 0;
+    private int prgRamWriteCount = 0;
+    private final AtomicInteger prgRamWrites = new AtomicInteger(); // Published copy, polled by the battery save flusher
+
+    protected BankedMapper(byte[] prgROM, byte[] chrROM, boolean chrRAM, int prgRamSize) {
+        this.prgROM = prgROM;
+        this.chrROM = chrROM;
+        this.chrRAM = chrRAM;
+        this.prgRAM = prgRamSize > 0 ? new byte[prgRamSize] : null;
+        this.prgBankCount = Math.max(1, prgROM.length / 0x2000);
+        this.chrBankCount = Math.max(1, chrROM.length / 0x0400);
+    }
+
+    @Override
+    public int read(int address) {
+        if (address >= 0x8000) {
+            return prgROM[prgOffsets[(address >> 13) & 0x03] | (address & 0x1FFF)] & 0xFF;
+        } else if (address >= 0x6000 && prgRAM != null) {
+            return prgRAM[address - 0x6000] & 0xFF;
+        }
+        return 0;
+    }
+
+    @Override
+    public void write(int address, int value) {
+        if (address >= 0x8000) {
+            writeRegister(address, value);
+        } else if (address >= 0x6000 && prgRAM != null) {
+            prgRAM[address - 0x6000] = (byte) value;
+            prgRamWrites.lazySet(++prgRamWriteCount); // Publish the count after the byte is stored
+        }
+    }
+
+    @Override
+    public byte[] getPrgRAM() {
+        return prgRAM;
+    }
+
+    @Override
+    public int getPrgRamWrites() {
+        return prgRamWrites.get();
+    }
+
+    /**
+     * Handle a CPU write to $8000-$FFFF. Implementations update their registers and then
+     * recompute the affected offsets with the setPrg/setChr helpers.
+     */
+    protected abstract void writeRegister(int address, int value);
+
+    @Override
+    public int chrRead(int address) {
+        return chrROM[chrOffsets[(address >> 10) & 0x07] | (address & 0x03FF)] & 0xFF;
+    }
+
+    @Override
+    public void chrWrite(int address, int value) {
+        if (chrRAM) {
+            chrROM[chrOffsets[(address >> 10) & 0x07] | (address & 0x03FF)] = (byte) value;
+        }
+    }
+
+    @Override
+    public byte[] getChrWindow(int window) {
+        return chrROM;
+    }
+
+    @Override
+    public int getChrWindowOffset(int window) {
+        return chrOffsets[window];
+    }
+
+    @Override
+    public int getChrBankGeneration() {
+        return chrBankGeneration;
+    }
+
+    /** Map an 8KB PRG bank into window 0-3 ($8000, $A000, $C000, $E000). */
+    protected void setPrgBank8k(int window, int bank) {
+        prgOffsets[window] = Math.floorMod(bank, prgBankCount) * 0x2000;
+    }
+
+    /** Map a 16KB PRG bank at $8000 (window 0) or $C000 (window 1). */
+    protected void setPrgBank16k(int window, int bank) {
+        setPrgBank8k(window * 2, bank * 2);
+        setPrgBank8k(window * 2 + 1, bank * 2 + 1);
+    }
+
+    /** Map a 32KB PRG bank at $8000. */
+    protected void setPrgBank32k(int bank) {
+        for (int i = 0; i < 4; i++) {
+            setPrgBank8k(i, bank * 4 + i);
+        }
+    }
+
+    /** Map a 1KB CHR bank into window 0-7. */
+    protected void setChrBank1k(int window, int bank) {
+        int offset = Math.floorMod(bank, chrBankCount) * 0x0400;
+        if (chrOffsets[window] != offset) {
+            chrOffsets[window] = offset;
+            chrBankGeneration++;
+        }
+    }
+
+    /** Map a 4KB CHR bank at PPU $0000 (window 0) or $1000 (window 1). */
+    protected void setChrBank4k(int window, int bank) {
+        for (int i = 0; i < 4; i++) {
+            setChrBank1k(window * 4 + i, bank * 4 + i);
+        }
+    }
+
+    /** Map an 8KB CHR bank at PPU $0000. */
+    protected void setChrBank8k(int bank) {
+        for (int i = 0; i < 8; i++) {
+            setChrBank1k(i, bank * 8 + i);
+        }
+    }
+}
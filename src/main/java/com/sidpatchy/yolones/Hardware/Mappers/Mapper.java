@@ -1,14 +1,35 @@
 package com.sidpatchy.yolones.Hardware.Mappers;
 
 public interface Mapper {
+    // Nametable mirroring modes returned by getMirroringMode()
+    int MIRROR_HARDWIRED = -1;    // Use the cartridge header's mirroring
+    int MIRROR_VERTICAL = 0;
+    int MIRROR_HORIZONTAL = 1;
+    int MIRROR_SINGLE_LOWER = 2;  // All four nametables show the first 1KB table
+    int MIRROR_SINGLE_UPPER = 3;  // All four nametables show the second 1KB table
+    int MIRROR_FOUR_SCREEN = 4;   // Cart VRAM backs all four nametables
+
     int read(int address);
     void write(int address, int value);
     
     // For PPU
     int chrRead(int address);
     void chrWrite(int address, int value);
+
+    // The pattern tables as eight 1KB windows, so the PPU can fetch from the backing arrays
+    // directly. Window i covers PPU $0000 + i * $400 and starts at getChrWindowOffset(i).
+    byte[] getChrWindow(int window);
+    int getChrWindowOffset(int window);
+    // Changes whenever any CHR window is remapped
+    int getChrBankGeneration();
     
+    // Work RAM at $6000-$7FFF, for battery saves. Null if the board has none.
+    default byte[] getPrgRAM() { return null; }
+    // Number of PRG-RAM writes so far. Published after the written bytes, so a thread that reads
+    // a count sees at least the writes it counts.
+    default int getPrgRamWrites() { return 0; }
+
     default boolean hasIRQ() { return false; }
     default void clockIRQ() { }
-    default int getMirroringMode() { return -1; } // -1 means use hardwired mirroring
+    default int getMirroringMode() { return MIRROR_HARDWIRED; }
 }
@@ -1,42 +1,45 @@
 package com.sidpatchy.yolones.Hardware.Mappers;
 
-public class Mapper0 implements Mapper {
-    private final byte[] prgROM;
-    private final byte[] chrROM;
+import com.sidpatchy.yolones.Hardware.RomHeader;
 
-    public Mapper0(byte[] prgROM, byte[] chrROM) {
-        this.prgROM = prgROM;
-        this.chrROM = chrROM;
+public class Mapper0 extends BankedMapper {
+    private final int prgMask; // 16KB carts are mirrored into $C000
+
+    public Mapper0(byte[] prgROM, byte[] chrROM, boolean chrRAM) {
+        super(prgROM, chrROM, chrRAM, 0);
+        this.prgMask = Integer.highestOneBit(Math.min(Math.max(prgROM.length, 1), 0x8000)) - 1;
+        setPrgBank32k(0);
+        setChrBank8k(0);
     }
 
+    // Nothing is ever switched, so skip the window table on the CPU's hottest path
     @Override
     public int read(int address) {
         if (address >= 0x8000) {
-            int index = address - 0x8000;
-            if (prgROM.length == 16384) {
-                index %= 16384;
-            }
-            return prgROM[index] & 0xFF;
+            return prgROM[address & prgMask] & 0xFF;
         }
         return 0;
     }
 
     @Override
-    public void write(int address, int value) {
+    protected void writeRegister(int address, int value) {
         // NROM has no registers
     }
 
-    @Override
-    public int chrRead(int address) {
-        if (chrROM.length > 0) {
-            return chrROM[address & 0x1FFF] & 0xFF;
+    public static class Provider implements MapperProvider {
+        @Override
+        public int getMapperNumber() {
+            return 0;
         }
-        return 0;
-    }
 
-    @Override
-    public void chrWrite(int address, int value) {
-        // NROM usually has CHR-ROM, but some variants might have CHR-RAM
-        // For now, assume CHR-ROM
+        @Override
+        public String getName() {
+            return "NROM";
+        }
+
+        @Override
+        public Mapper create(byte[] prgROM, byte[] chrROM, boolean chrRAM, RomHeader header) {
+            return new Mapper0(prgROM, chrROM, chrRAM);
+        }
     }
 }
@@ -1,44 +1,35 @@
 package com.sidpatchy.yolones.Hardware.Mappers;
 
-public class Mapper148 implements Mapper {
-    private final byte[] prgROM;
-    private final byte[] chrROM;
-    private int prgBank = 0;
-    private int chrBank = 0;
+import com.sidpatchy.yolones.Hardware.RomHeader;
 
-    public Mapper148(byte[] prgROM, byte[] chrROM) {
-        this.prgROM = prgROM;
-        this.chrROM = chrROM;
+public class Mapper148 extends BankedMapper {
+
+    public Mapper148(byte[] prgROM, byte[] chrROM, boolean chrRAM) {
+        super(prgROM, chrROM, chrRAM, 0);
+        setPrgBank32k(0);
+        setChrBank8k(0);
     }
 
     @Override
-    public int read(int address) {
-        if (address >= 0x8000) {
-            int index = (prgBank * 0x8000 + (address - 0x8000)) % prgROM.length;
-            return prgROM[index] & 0xFF;
-        }
-        return 0;
+    protected void writeRegister(int address, int value) {
+        setChrBank8k(value & 0x07);
+        setPrgBank32k((value >> 3) & 0x1F);
     }
 
-    @Override
-    public void write(int address, int value) {
-        if (address >= 0x8000) {
-            chrBank = value & 0x07;
-            prgBank = (value >> 3) & 0x1F;
+    public static class Provider implements MapperProvider {
+        @Override
+        public int getMapperNumber() {
+            return 148;
         }
-    }
 
-    @Override
-    public int chrRead(int address) {
-        if (chrROM.length > 0) {
-            int index = (chrBank * 0x2000 + (address & 0x1FFF)) % chrROM.length;
-            return chrROM[index] & 0xFF;
+        @Override
+        public String getName() {
+            return "Sachen SA-008-A";
         }
-        return 0;
-    }
 
-    @Override
-    public void chrWrite(int address, int value) {
-        // Mapper 148 usually has CHR-ROM
+        @Override
+        public Mapper create(byte[] prgROM, byte[] chrROM, boolean chrRAM, RomHeader header) {
+            return new Mapper148(prgROM, chrROM, chrRAM);
+        }
     }
 }
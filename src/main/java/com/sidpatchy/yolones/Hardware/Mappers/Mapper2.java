@@ -0,0 +1,38 @@
+package com.sidpatchy.yolones.Hardware.Mappers;
+
+import com.sidpatchy.yolones.Hardware.RomHeader;
+
+/**
+ * UxROM: switchable 16KB PRG bank at $8000, last bank fixed at $C000, 8KB CHR (usually RAM).
+ */
+public class Mapper2 extends BankedMapper {
+
+    public Mapper2(byte[] prgROM, byte[] chrROM, boolean chrRAM) {
+        super(prgROM, chrROM, chrRAM, 0);
+        setPrgBank16k(0, 0);
+        setPrgBank16k(1, -1);
+        setChrBank8k(0);
+    }
+
+    @Override
+    protected void writeRegister(int address, int value) {
+        setPrgBank16k(0, value);
+    }
+
+    public static class Provider implements MapperProvider {
+        @Override
+        public int getMapperNumber() {
+            return 2;
+        }
+
+        @Override
+        public String getName() {
+            return "UxROM";
+        }
+
+        @Override
+        public Mapper create(byte[] prgROM, byte[] chrROM, boolean chrRAM, RomHeader header) {
+            return new Mapper2(prgROM, chrROM, chrRAM);
+        }
+    }
+}
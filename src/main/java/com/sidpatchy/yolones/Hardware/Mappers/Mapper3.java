@@ -0,0 +1,37 @@
+package com.sidpatchy.yolones.Hardware.Mappers;
+
+import com.sidpatchy.yolones.Hardware.RomHeader;
+
+/**
+ * CNROM: fixed 16KB or 32KB PRG, switchable 8KB CHR bank.
+ */
+public class Mapper3 extends BankedMapper {
+
+    public Mapper3(byte[] prgROM, byte[] chrROM, boolean chrRAM) {
+        super(prgROM, chrROM, chrRAM, 0);
+        setPrgBank32k(0);
+        setChrBank8k(0);
+    }
+
+    @Override
+    protected void writeRegister(int address, int value) {
+        setChrBank8k(value);
+    }
+
+    public static class Provider implements MapperProvider {
+        @Override
+        public int getMapperNumber() {
+            return 3;
+        }
+
+        @Override
+        public String getName() {
+            return "CNROM";
+        }
+
+        @Override
+        public Mapper create(byte[] prgROM, byte[] chrROM, boolean chrRAM, RomHeader header) {
+            return new Mapper3(prgROM, chrROM, chrRAM);
+        }
+    }
+}
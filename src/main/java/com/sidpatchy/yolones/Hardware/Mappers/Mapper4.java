@@ -1,10 +1,8 @@
 package com.sidpatchy.yolones.Hardware.Mappers;
 
-public class Mapper4 implements Mapper {
-    private final byte[] prgROM;
-    private final byte[] chrROM;
-    private final byte[] prgRAM = new byte[0x2000];
+import com.sidpatchy.yolones.Hardware.RomHeader;
 
+public class Mapper4 extends BankedMapper {
     private int targetRegister = 0;
     private int prgBankMode = 0;
     private int chrInversion = 0;
@@ -17,65 +15,40 @@ public class Mapper4 implements Mapper {
     private boolean irqPending = false;
     private int mirroringMode = 0; // 0: Vertical, 1: Horizontal
 
-    private final int[] prgBanks = new int[4];
-    private final int[] chrBanks = new int[8];
-
-    public Mapper4(byte[] prgROM, byte[] chrROM) {
-        this.prgROM = prgROM;
-        this.chrROM = chrROM;
+    public Mapper4(byte[] prgROM, byte[] chrROM, boolean chrRAM) {
+        super(prgROM, chrROM, chrRAM, 0x2000);
         updateBanks();
     }
 
     private void updateBanks() {
+        // Negative banks count back from the end of PRG ROM
         if (prgBankMode == 0) {
-            prgBanks[0] = registers[6];
-            prgBanks[1] = registers[7];
-            prgBanks[2] = (prgROM.length / 0x2000) - 2;
-            prgBanks[3] = (prgROM.length / 0x2000) - 1;
+            setPrgBank8k(0, registers[6]);
+            setPrgBank8k(1, registers[7]);
+            setPrgBank8k(2, -2);
+            setPrgBank8k(3, -1);
         } else {
-            prgBanks[0] = (prgROM.length / 0x2000) - 2;
-            prgBanks[1] = registers[7];
-            prgBanks[2] = registers[6];
-            prgBanks[3] = (prgROM.length / 0x2000) - 1;
+            setPrgBank8k(0, -2);
+            setPrgBank8k(1, registers[7]);
+            setPrgBank8k(2, registers[6]);
+            setPrgBank8k(3, -1);
         }
 
-        if (chrInversion == 0) {
-            chrBanks[0] = registers[0] & 0xFE;
-            chrBanks[1] = registers[0] | 0x01;
-            chrBanks[2] = registers[1] & 0xFE;
-            chrBanks[3] = registers[1] | 0x01;
-            chrBanks[4] = registers[2];
-            chrBanks[5] = registers[3];
-            chrBanks[6] = registers[4];
-            chrBanks[7] = registers[5];
-        } else {
-            chrBanks[0] = registers[2];
-            chrBanks[1] = registers[3];
-            chrBanks[2] = registers[4];
-            chrBanks[3] = registers[5];
-            chrBanks[4] = registers[0] & 0xFE;
-            chrBanks[5] = registers[0] | 0x01;
-            chrBanks[6] = registers[1] & 0xFE;
-            chrBanks[7] = registers[1] | 0x01;
-        }
+        int twoKb = chrInversion == 0 ? 0 : 4;
+        int oneKb = chrInversion == 0 ? 4 : 0;
+        setChrBank1k(twoKb, registers[0] & 0xFE);
+        setChrBank1k(twoKb + 1, registers[0] | 0x01);
+        setChrBank1k(twoKb + 2, registers[1] & 0xFE);
+        setChrBank1k(twoKb + 3, registers[1] | 0x01);
+        setChrBank1k(oneKb, registers[2]);
+        setChrBank1k(oneKb + 1, registers[3]);
+        setChrBank1k(oneKb + 2, registers[4]);
+        setChrBank1k(oneKb + 3, registers[5]);
     }
 
     @Override
-    public int read(int address) {
-        if (address >= 0x8000) {
-            int bank = (address - 0x8000) / 0x2000;
-            int offset = (address - 0x8000) % 0x2000;
-            int prgIndex = (prgBanks[bank] * 0x2000 + offset) % prgROM.length;
-            return prgROM[prgIndex] & 0xFF;
-        } else if (address >= 0x6000) {
-            return prgRAM[address - 0x6000] & 0xFF;
-        }
-        return 0;
-    }
-
-    @Override
-    public void write(int address, int value) {
-        if (address >= 0x8000 && address <= 0x9FFF) {
+    protected void writeRegister(int address, int value) {
+        if (address <= 0x9FFF) {
             if ((address & 1) == 0) {
                 targetRegister = value & 0x07;
                 prgBankMode = (value >> 6) & 0x01;
@@ -84,44 +57,28 @@ public class Mapper4 implements Mapper {
                 registers[targetRegister] = value;
             }
             updateBanks();
-        } else if (address >= 0xA000 && address <= 0xBFFF) {
+        } else if (address <= 0xBFFF) {
             if ((address & 1) == 0) {
                 mirroringMode = value & 0x01;
             } else {
                 // PRG RAM Protect
             }
-        } else if (address >= 0xC000 && address <= 0xDFFF) {
+        } else if (address <= 0xDFFF) {
             if ((address & 1) == 0) {
                 irqLatch = value;
             } else {
                 irqReload = true;
             }
-        } else if (address >= 0xE000 && address <= 0xFFFF) {
+        } else {
             if ((address & 1) == 0) {
                 irqEnabled = false;
                 irqPending = false;
             } else {
                 irqEnabled = true;
             }
-        } else if (address >= 0x6000 && address <= 0x7FFF) {
-            prgRAM[address - 0x6000] = (byte) value;
         }
     }
 
-    @Override
-    public int chrRead(int address) {
-        int bank = address / 0x0400;
-        int offset = address % 0x0400;
-        int chrIndex = (chrBanks[bank] * 0x0400 + offset) % Math.max(1, chrROM.length);
-        if (chrROM.length == 0) return 0; // CHR-RAM case not fully handled but avoided crash
-        return chrROM[chrIndex] & 0xFF;
-    }
-
-    @Override
-    public void chrWrite(int address, int value) {
-        // Assume CHR-ROM for now
-    }
-
     @Override
     public int getMirroringMode() {
         return mirroringMode;
@@ -144,4 +101,21 @@ public class Mapper4 implements Mapper {
             irqPending = true;
         }
     }
+
+    public static class Provider implements MapperProvider {
+        @Override
+        public int getMapperNumber() {
+            return 4;
+        }
+
+        @Override
+        public String getName() {
+            return "MMC3";
+        }
+
+        @Override
+        public Mapper create(byte[] prgROM, byte[] chrROM, boolean chrRAM, RomHeader header) {
+            return new Mapper4(prgROM, chrROM, chrRAM);
+        }
+    }
 }
@@ -0,0 +1,44 @@
+package com.sidpatchy.yolones.Hardware.Mappers;
+
+import com.sidpatchy.yolones.Hardware.RomHeader;
+
+/**
+ * AxROM: switchable 32KB PRG bank, 8KB CHR-RAM, one-screen mirroring selected by bit 4.
+ */
+public class Mapper7 extends BankedMapper {
+    private int mirroringMode = MIRROR_SINGLE_LOWER;
+
+    public Mapper7(byte[] prgROM, byte[] chrROM, boolean chrRAM) {
+        super(prgROM, chrROM, chrRAM, 0);
+        setPrgBank32k(0);
+        setChrBank8k(0);
+    }
+
+    @Override
+    protected void writeRegister(int address, int value) {
+        setPrgBank32k(value & 0x07);
+        mirroringMode = (value & 0x10) != 0 ? MIRROR_SINGLE_UPPER : MIRROR_SINGLE_LOWER;
+    }
+
+    @Override
+    public int getMirroringMode() {
+        return mirroringMode;
+    }
+
+    public static class Provider implements MapperProvider {
+        @Override
+        public int getMapperNumber() {
+            return 7;
+        }
+
+        @Override
+        public String getName() {
+            return "AxROM";
+        }
+
+        @Override
+        public Mapper create(byte[] prgROM, byte[] chrROM, boolean chrRAM, RomHeader header) {
+            return new Mapper7(prgROM, chrROM, chrRAM);
+        }
+    }
+}
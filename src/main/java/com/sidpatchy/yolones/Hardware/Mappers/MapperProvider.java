@@ -0,0 +1,30 @@
+package com.sidpatchy.yolones.Hardware.Mappers;
+
+import com.sidpatchy.yolones.Hardware.RomHeader;
+
+/**
+ * Creates mappers for one iNES mapper number. Implementations are found with
+ * {@link java.util.ServiceLoader}: list them in
+ * {@code META-INF/services/com.sidpatchy.yolones.Hardware.Mappers.MapperProvider}.
+ */
+public interface MapperProvider {
+    /** The iNES / NES 2.0 mapper number handled. */
+    int getMapperNumber();
+
+    /** NES 2.0 submappers handled, or an empty array for all of them. */
+    default int[] getSubmappers() {
+        return new int[0];
+    }
+
+    /** Board name for logs and reports, e.g. "MMC3". */
+    String getName();
+
+    /**
+     * Build a mapper for one cartridge.
+     *
+     * @param prgROM shared, read-only PRG ROM
+     * @param chrROM CHR ROM (shared, read-only) or the cart's own CHR-RAM
+     * @param chrRAM true if chrROM is writable CHR-RAM
+     */
+    Mapper create(byte[] prgROM, byte[] chrROM, boolean chrRAM, RomHeader header);
+}
@@ -0,0 +1,76 @@
+package com.sidpatchy.yolones.Hardware.Mappers;
+
+import com.sidpatchy.yolones.Hardware.RomHeader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * Looks up mappers by number and submapper among the {@link MapperProvider}s on the classpath.
+ * Providers are discovered on first use.
+ */
+public final class MapperRegistry {
+    private MapperRegistry() {
+    }
+
+    // Initialized on first access to MapperRegistry's lookups
+    private static class Providers {
+        static final List<MapperProvider> ALL;
+        static final Map<Integer, List<MapperProvider>> BY_NUMBER = new HashMap<>();
+
+        static {
+            List<MapperProvider> all = new ArrayList<>();
+            for (MapperProvider provider : ServiceLoader.load(MapperProvider.class)) {
+                all.add(provider);
+                BY_NUMBER.computeIfAbsent(provider.getMapperNumber(), n -> new ArrayList<>()).add(provider);
+            }
+            ALL = Collections.unmodifiableList(all);
+        }
+    }
+
+    /** Every registered provider. */
+    public static List<MapperProvider> getProviders() {
+        return Providers.ALL;
+    }
+
+    /**
+     * The provider for a mapper and submapper. One that lists the submapper wins over one that
+     * accepts any submapper.
+     *
+     * @return the provider, or null if none is registered
+     */
+    public static MapperProvider find(int mapperNumber, int submapper) {
+        List<MapperProvider> candidates = Providers.BY_NUMBER.get(mapperNumber);
+        if (candidates == null) return null;
+
+        MapperProvider fallback = null;
+        for (MapperProvider provider : candidates) {
+            int[] submappers = provider.getSubmappers();
+            if (submappers.length == 0) {
+                if (fallback == null) fallback = provider;
+                continue;
+            }
+            for (int s : submappers) {
+                if (s == submapper) return provider;
+            }
+        }
+        return fallback;
+    }
+
+    /**
+     * Create the mapper a ROM header asks for.
+     *
+     * @throws UnsupportedOperationException if no provider handles it
+     */
+    public static Mapper create(RomHeader header, byte[] prgROM, byte[] chrROM, boolean chrRAM) {
+        MapperProvider provider = find(header.getMapperNumber(), header.getSubmapper());
+        if (provider == null) {
+            throw new UnsupportedOperationException("Mapper " + header.getMapperNumber() + " not implemented");
+        }
+        return provider.create(prgROM, chrROM, chrRAM, header);
+    }
+}
@@ -4,6 +4,8 @@ import com.sidpatchy.yolones.Hardware.Mappers.Mapper;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.concurrent.ForkJoinPool;
+
 public class PPU {
     private static final Logger logger = LogManager.getLogger(PPU.class);
     private PPUMemory memory;
@@ -24,6 +26,7 @@ public class PPU {
 
     // OAM (Object Attribute Memory) for sprites
     private int[] oam = new int[256];
+    private int oamGeneration = 0;    // Bumped on every OAM write
     private int[] bgPixels = new int[256]; // 0: transparent, 1: opaque
 
     // Internal state
@@ -32,8 +35,24 @@ public class PPU {
     // Timing
     private int scanline = 0;
     private int cycle = 0;
+    private int vblankDot = -1; // Dot within the last advance() on which vblank started
     private Mapper mapper;
 
+    // Lazy rendering: pixels of the current visible line are produced up to the current dot
+    // only when something is about to change what they would look like, and in bulk at line end.
+    private int lineV = 0;        // v at the start of the current line, rebased on mid-line v writes
+    private int renderedDots = 0; // Pixels of the current line already produced
+
+    // When false, visible scanlines skip pixel composition. Sprite 0 hit and
+    // sprite overflow are still evaluated so game timing is unaffected.
+    private boolean renderEnabled = true;
+
+    // Non-null while visible lines are recorded and rasterized off the emulation thread
+    private DeferredRenderer deferredRenderer;
+
+    // Non-null while unchanged lines are reused from the previous frame (synchronous rendering only)
+    private ScanlineCache scanlineCache;
+
     // NES color palette (all 64 colors)
     private static final int[] NES_PALETTE = {
             0x666666, 0x002A88, 0x1412A7, 0x3B00A4, 0x5C007E, 0x6E0040, 0x6C0600, 0x561D00,
@@ -83,6 +102,9 @@ public class PPU {
     public void writeRegister(int addr, int value) {
         value &= 0xFF;
 
+        // Finish the pixels drawn under the old state before it changes
+        catchUp();
+
         switch(addr & 0x0007) {
             case 0x0000:  // PPUCTRL
                 ppuCtrl = value;
@@ -102,6 +124,7 @@ public class PPU {
                 // Write to OAM at current address, auto-increment
                 oam[oamAddr & 0xFF] = value & 0xFF;
                 oamAddr = (oamAddr + 1) & 0xFF;
+                oamGeneration++;
                 break;
 
             case 0x0005:  // PPUSCROLL
@@ -134,6 +157,10 @@ public class PPU {
                     t = (t & 0xFF00) | value;
                     v = t;
                     w = false;
+                    if (scanline < 240) {
+                        // Remaining pixels of this line fetch from the new address
+                        lineV = addCoarseX(v, -((x + renderedDots) / 8));
+                    }
                 }
                 break;
 
@@ -168,7 +195,11 @@ public class PPU {
             cycle = 0;
             
             if (scanline < 240) {
-                renderScanline(scanline);
+                renderSpan(256);
+                evaluateSpriteOverflow(scanline);
+                if (deferredRenderer != null && scanline == 239) {
+                    deferredRenderer.finishFrame();
+                }
                 if ((ppuMask & 0x18) != 0) {
                     incrementY();
                 }
@@ -191,11 +222,66 @@ public class PPU {
                 scanline = 0;
                 oamAddr = 0;
             }
+
+            if (scanline < 240) {
+                lineV = v;
+                renderedDots = 0;
+            }
         }
 
         return false;  // No NMI
     }
 
+    /**
+     * Advance the PPU by the given number of dots. Equivalent to calling {@link #tick()} that many
+     * times, but dots on which tick() would only increment the cycle counter are skipped in bulk.
+     * Whether or not NMI is enabled, {@link #getVblankDot()} reports afterwards whether vblank
+     * started during the call.
+     *
+     * @return the zero-based dot within this call on which NMI was raised, or -1 if none was
+     */
+    public int advance(int dots) {
+        int nmiDot = -1;
+        vblankDot = -1;
+        int done = 0;
+
+        while (done < dots) {
+            // Rendering state cannot change inside advance(), nothing here writes the registers
+            boolean rendering = (ppuMask & 0x18) != 0;
+            boolean renderLine = scanline < 240 || scanline == 261;
+
+            // Next cycle (pre-increment, as seen at the top of tick()) on which tick() does work
+            int next = 340; // Line end
+            if (rendering && renderLine) {
+                if (cycle <= 257) {
+                    next = 257; // Horizontal v copy
+                } else if (cycle <= 259) {
+                    next = 259; // Mapper IRQ clock (cycle 260 after the increment)
+                } else if (scanline == 261 && cycle <= 304) {
+                    next = Math.max(cycle, 280); // Vertical v copy, every dot 280-304
+                }
+            }
+
+            int skip = next - cycle;
+            if (done + skip >= dots) {
+                cycle += dots - done;
+                break;
+            }
+
+            cycle = next;
+            done += skip;
+            if (tick() && nmiDot < 0) {
+                nmiDot = done;
+            }
+            if (scanline == 241 && cycle == 0 && vblankDot < 0) {
+                vblankDot = done;
+            }
+            done++;
+        }
+
+        return nmiDot;
+    }
+
     private void incrementY() {
         if ((v & 0x7000) != 0x7000) {
             v += 0x1000;
@@ -214,15 +300,65 @@ public class PPU {
         }
     }
 
-    private void renderScanline(int y) {
+    /**
+     * Produce the pixels of the current visible line up to the current dot using the present
+     * register, VRAM and mapper state. Called before anything that changes that state.
+     */
+    public void catchUp() {
+        // Pixel n is output on dot n + 1
+        renderSpan(Math.min(Math.max(cycle - 1, 0), 256));
+    }
+
+    private void renderSpan(int to) {
+        if (scanline >= 240 || to <= renderedDots) return;
+        int from = renderedDots;
+        renderedDots = to;
+
+        if (!renderEnabled) {
+            evaluateSprite0Hit(scanline, from, to);
+        } else if (deferredRenderer != null) {
+            // Pixels are produced later on the pool; only the flags are needed now
+            evaluateSprite0Hit(scanline, from, to);
+            deferredRenderer.record(scanline, from, to, lineV, x, ppuCtrl, ppuMask, oam, oamGeneration, memory);
+        } else if (scanlineCache != null && from == 0 && to == 256) {
+            if (scanlineCache.renderLine(memory, scanline, lineV, x, ppuCtrl, ppuMask, oam, framebuffer, bgPixels)) {
+                ppuStatus |= 0x40;
+            }
+        } else if (rasterizeSpan(memory, scanline, from, to, lineV, x, ppuCtrl, ppuMask, oam, framebuffer, bgPixels)) {
+            ppuStatus |= 0x40;
+        }
+    }
+
+    // Move v's coarse X by n tiles (-32..32), switching horizontal nametable on wrap
+    private static int addCoarseX(int v, int n) {
+        int coarse = (v & 0x001F) + n;
+        v = (v & ~0x001F) | (coarse & 0x001F);
+        if ((coarse & 0x20) != 0) {
+            v ^= 0x0400;
+        }
+        return v;
+    }
+
+    /**
+     * Draw pixels [from, to) of one scanline into the framebuffer from the given VRAM view and
+     * register values. Used both on the emulation thread and by the deferred renderer, so it must
+     * not touch PPU fields.
+     *
+     * @param lineV v as it stood at the start of the line
+     * @return true if sprite 0 hit occurred within the span
+     */
+    static boolean rasterizeSpan(VramReader memory, int y, int from, int to, int lineV, int fineX,
+                                 int ppuCtrl, int ppuMask, int[] oam, int[] framebuffer, int[] bgPixels) {
+        boolean sprite0Hit = false;
+
         // Clear background with universal background color first if rendering is enabled
         int universalColor = NES_PALETTE[memory.read(0x3F00) & 0x3F];
-        for (int x = 0; x < 256; x++) {
+        for (int x = from; x < to; x++) {
             framebuffer[y * 256 + x] = universalColor;
             bgPixels[x] = 0;
         }
 
-        if ((ppuMask & 0x18) == 0) return; // Rendering disabled
+        if ((ppuMask & 0x18) == 0) return false; // Rendering disabled
 
         int bgPatternBase = ((ppuCtrl & 0x10) != 0) ? 0x1000 : 0x0000;
         int spritePatternBase = ((ppuCtrl & 0x08) != 0) ? 0x1000 : 0x0000;
@@ -230,12 +366,12 @@ public class PPU {
 
         // Simplified background rendering for the scanline
         if ((ppuMask & 0x08) != 0) {
-            // Start of scanline: copy horizontal bits from v to a local register for rendering
-            int tempV = v;
+            // Position a local copy of v at the span's first tile
+            int tempV = addCoarseX(lineV, (fineX + from) / 8);
 
-            for (int dot = 0; dot < 256; dot++) {
-                int fineX = (x + dot) % 8;
-                if (dot > 0 && fineX == 0) {
+            for (int dot = from; dot < to; dot++) {
+                int tileX = (fineX + dot) % 8;
+                if (dot > from && tileX == 0) {
                     // Increment coarse X in tempV
                     if ((tempV & 0x001F) == 31) {
                         tempV &= 0xFFE0;
@@ -264,8 +400,8 @@ public class PPU {
                 int lowByte = memory.read(tileAddr);
                 int highByte = memory.read(tileAddr + 8);
                 
-                int bit0 = (lowByte >> (7 - fineX)) & 1;
-                int bit1 = (highByte >> (7 - fineX)) & 1;
+                int bit0 = (lowByte >> (7 - tileX)) & 1;
+                int bit1 = (highByte >> (7 - tileX)) & 1;
                 int colorIndex = (bit1 << 1) | bit0;
 
                 if (colorIndex != 0) {
@@ -289,6 +425,7 @@ public class PPU {
                 int tile = oam[i * 4 + 1] & 0xFF;
                 int attr = oam[i * 4 + 2] & 0xFF;
                 int spriteX = oam[i * 4 + 3] & 0xFF;
+                if (spriteX + 8 <= from || spriteX >= to) continue;
                 int palette = attr & 0x03;
                 boolean flipH = (attr & 0x40) != 0;
                 boolean flipV = (attr & 0x80) != 0;
@@ -311,7 +448,7 @@ public class PPU {
 
                 for (int col = 0; col < 8; col++) {
                     int x = spriteX + col;
-                    if (x >= 256) continue;
+                    if (x < from || x >= to) continue;
 
                     int pixelCol = flipH ? col : 7 - col;
                     int bit0 = (lowByte >> pixelCol) & 1;
@@ -328,7 +465,7 @@ public class PPU {
                             boolean sprLeftMasked = (x < 8) && ((ppuMask & 0x04) == 0);
 
                             if (bgVisible && sprVisible && !bgLeftMasked && !sprLeftMasked) {
-                                ppuStatus |= 0x40;
+                                sprite0Hit = true;
                             }
                         }
 
@@ -343,6 +480,92 @@ public class PPU {
                 }
             }
         }
+
+        return sprite0Hit;
+    }
+
+    // Minimal sprite 0 hit test used when pixels are not drawn on this thread. Only sprite 0's
+    // row is fetched and the background is sampled at the columns it covers within [from, to),
+    // using the same masking rules as rasterizeSpan.
+    private void evaluateSprite0Hit(int y, int from, int to) {
+        if ((ppuMask & 0x18) != 0x18) return; // Needs both background and sprites
+        if ((ppuStatus & 0x40) != 0) return;  // Already set this frame
+
+        boolean sprites8x16 = (ppuCtrl & 0x20) != 0;
+        int spriteY = (oam[0] & 0xFF) + 1;
+        if (y < spriteY || y >= spriteY + (sprites8x16 ? 16 : 8)) return;
+
+        int tile = oam[1] & 0xFF;
+        int attr = oam[2] & 0xFF;
+        int spriteX = oam[3] & 0xFF;
+        if (spriteX + 8 <= from || spriteX >= to) return;
+        boolean flipH = (attr & 0x40) != 0;
+        boolean flipV = (attr & 0x80) != 0;
+
+        int row = y - spriteY;
+        if (flipV) row = (sprites8x16 ? 15 : 7) - row;
+
+        int tileAddr;
+        if (!sprites8x16) {
+            int spritePatternBase = ((ppuCtrl & 0x08) != 0) ? 0x1000 : 0x0000;
+            tileAddr = spritePatternBase + tile * 16 + (row % 8);
+        } else {
+            int baseTable = (tile & 1) != 0 ? 0x1000 : 0x0000;
+            int actualTile = (tile & 0xFE) + ((row >= 8) ? 1 : 0);
+            tileAddr = baseTable + actualTile * 16 + (row % 8);
+        }
+
+        int lowByte = memory.read(tileAddr);
+        int highByte = memory.read(tileAddr + 8);
+        if ((lowByte | highByte) == 0) return;
+
+        int bgPatternBase = ((ppuCtrl & 0x10) != 0) ? 0x1000 : 0x0000;
+        for (int col = 0; col < 8; col++) {
+            int px = spriteX + col;
+            if (px < from) continue;
+            if (px >= 255 || px >= to) break;
+            if (px < 8 && (ppuMask & 0x06) != 0x06) continue; // Left 8 pixels masked
+
+            int pixelCol = flipH ? col : 7 - col;
+            if ((((lowByte | highByte) >> pixelCol) & 1) == 0) continue;
+
+            if (bgColorIndexAt(lineV, px, bgPatternBase) != 0) {
+                ppuStatus |= 0x40;
+                return;
+            }
+        }
+    }
+
+    // Background colour index (0-3) of a single pixel, stepping coarse X from the
+    // scanline's starting v the same way rasterizeSpan does.
+    private int bgColorIndexAt(int lineV, int dot, int bgPatternBase) {
+        int tempV = addCoarseX(lineV, (x + dot) / 8);
+
+        int tileIndex = memory.read(0x2000 | (tempV & 0x0FFF));
+        int fineY = (tempV >> 12) & 0x07;
+        int tileAddr = bgPatternBase + tileIndex * 16 + fineY;
+        int fineX = (x + dot) % 8;
+        int bit0 = (memory.read(tileAddr) >> (7 - fineX)) & 1;
+        int bit1 = (memory.read(tileAddr + 8) >> (7 - fineX)) & 1;
+        return (bit1 << 1) | bit0;
+    }
+
+    // Sets the sprite overflow flag when more than eight sprites fall on a line.
+    // The hardware's buggy diagonal OAM scan is not emulated.
+    private void evaluateSpriteOverflow(int y) {
+        if ((ppuMask & 0x18) == 0 || (ppuStatus & 0x20) != 0) return;
+
+        int height = (ppuCtrl & 0x20) != 0 ? 16 : 8;
+        int count = 0;
+        for (int i = 0; i < 64; i++) {
+            int spriteY = (oam[i * 4] & 0xFF) + 1;
+            if (y >= spriteY && y < spriteY + height) {
+                if (++count > 8) {
+                    ppuStatus |= 0x20;
+                    return;
+                }
+            }
+        }
     }
 
     private void drawBgTile(int screenX, int screenY, int tileIndex, int paletteIndex, int patternBase) {
@@ -412,10 +635,99 @@ public class PPU {
         }
     }
 
+    public void setRenderEnabled(boolean renderEnabled) {
+        this.renderEnabled = renderEnabled;
+    }
+
+    public boolean isRenderEnabled() {
+        return renderEnabled;
+    }
+
+    /**
+     * Record visible scanlines and rasterize each finished frame on the common ForkJoin pool
+     * while emulation continues. Sprite 0 hit and overflow are still evaluated immediately.
+     */
+    public void setDeferredRendering(boolean enabled) {
+        setDeferredRendering(enabled ? ForkJoinPool.commonPool() : null);
+    }
+
+    /**
+     * Rasterize frames on the given pool, or synchronously again when pool is null.
+     */
+    public void setDeferredRendering(ForkJoinPool pool) {
+        if (deferredRenderer != null) {
+            // Carry on from the newest picture, whichever buffer it ended up in
+            deferredRenderer.awaitFrame();
+            int[] latest = deferredRenderer.getFramebuffer();
+            if (latest != framebuffer) {
+                System.arraycopy(latest, 0, framebuffer, 0, framebuffer.length);
+            }
+            deferredRenderer = null;
+        }
+        if (pool != null) {
+            deferredRenderer = new DeferredRenderer(pool, framebuffer);
+        }
+    }
+
+    public boolean isDeferredRendering() {
+        return deferredRenderer != null;
+    }
+
+    /**
+     * Reuse the pixels of lines whose inputs match the previous frame. Only lines drawn as a single
+     * span on the emulation thread are cached; deferred rendering bypasses the cache.
+     */
+    public void setScanlineCache(boolean enabled) {
+        if (enabled && scanlineCache == null) {
+            scanlineCache = new ScanlineCache();
+        } else if (!enabled) {
+            scanlineCache = null;
+        }
+    }
+
+    /** The active scanline cache (for its hit statistics), or null when disabled. */
+    public ScanlineCache getScanlineCache() {
+        return scanlineCache;
+    }
+
+    /**
+     * Called after the CPU writes a mapper register, which may have switched CHR banks or mirroring.
+     * {@link #catchUp()} should be called before the write.
+     */
+    public void mapperStateChanged() {
+        memory.invalidate();
+    }
+
+    /**
+     * In deferred mode this is the most recent frame whose rasterization has completed, which may
+     * be one frame behind emulation; it never waits, and stays intact until the next frame completes.
+     */
     public int[] getFramebuffer() {
+        if (deferredRenderer != null) {
+            return deferredRenderer.getFramebuffer();
+        }
         return framebuffer;
     }
 
+    /**
+     * Like {@link #getFramebuffer()}, but in deferred mode first waits for the most recently
+     * finished frame to be rasterized.
+     */
+    public int[] awaitFramebuffer() {
+        if (deferredRenderer != null) {
+            deferredRenderer.awaitFrame();
+        }
+        return getFramebuffer();
+    }
+
+    /**
+     * The zero-based dot within the last {@link #advance} call on which the vblank flag was set,
+     * or -1 if vblank did not start during it.
+     */
+    public int getVblankDot() {
+        return vblankDot;
+    }
+
     public int getScanline() {
         return scanline;
     }
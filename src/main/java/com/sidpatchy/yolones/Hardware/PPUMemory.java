@@ -2,51 +2,140 @@ package com.sidpatchy.yolones.Hardware;
 
 import com.sidpatchy.yolones.Hardware.Mappers.Mapper;
 
-public class PPUMemory {
-    // 2KB of nametable RAM (physically two 1KB tables; mapped via mirroring)
-    private final int[] nametableRAM = new int[0x800];
+public class PPUMemory implements VramReader {
+    // Nametable RAM. Consoles have 2KB (two 1KB tables); four-screen carts add another 2KB.
+    private final byte[] nametableRAM = new byte[0x1000];
+    // Offset into nametableRAM of each of the four logical nametables, rebuilt on mirroring changes
+    private final int[] nametablePages = new int[4];
+    private int mirroringMode = Integer.MIN_VALUE;   // Mode nametablePages was built for
     private final int[] paletteRAM = new int[32];    // Palette memory
+    // The mapper's CHR windows, refreshed when its bank generation changes
+    private final byte[][] chrWindows = new byte[8][];
+    private final int[] chrWindowOffsets = new int[8];
+    private int chrBankGeneration;
     private final Mapper mapper;
     private final boolean mirrorVertical;            // True: vertical, False: horizontal
+    private final boolean fourScreen;                // Cart provides VRAM for all four nametables
+    private int generation = 0;                      // Bumped whenever what read() returns may change
+    private int chrGeneration = 0;                   // Bumped when pattern table contents may change
 
     public PPUMemory(Mapper mapper, boolean mirrorVertical) {
+        this(mapper, mirrorVertical, false);
+    }
+
+    public PPUMemory(Mapper mapper, boolean mirrorVertical, boolean fourScreen) {
         this.mapper = mapper;
         this.mirrorVertical = mirrorVertical;
+        this.fourScreen = fourScreen;
+        updateMirroring();
+        refreshChrWindows();
+    }
+
+    private void refreshChrWindows() {
+        for (int i = 0; i < 8; i++) {
+            chrWindows[i] = mapper.getChrWindow(i);
+            chrWindowOffsets[i] = mapper.getChrWindowOffset(i);
+        }
+        chrBankGeneration = mapper.getChrBankGeneration();
+    }
+
+    /**
+     * Re-read the mapper's mirroring mode and rebuild the nametable page table if it changed.
+     */
+    public void updateMirroring() {
+        int mode = mapper.getMirroringMode();
+        if (fourScreen) {
+            mode = Mapper.MIRROR_FOUR_SCREEN; // Cart VRAM wins over anything the mapper selects
+        } else if (mode == Mapper.MIRROR_HARDWIRED) {
+            mode = mirrorVertical ? Mapper.MIRROR_VERTICAL : Mapper.MIRROR_HORIZONTAL;
+        }
+        if (mode == mirroringMode) return;
+        mirroringMode = mode;
+
+        switch (mode) {
+            case Mapper.MIRROR_VERTICAL:
+                // NT0=phys0, NT1=phys1, NT2=phys0, NT3=phys1
+                setPages(0, 1, 0, 1);
+                break;
+            case Mapper.MIRROR_SINGLE_LOWER:
+                setPages(0, 0, 0, 0);
+                break;
+            case Mapper.MIRROR_SINGLE_UPPER:
+                setPages(1, 1, 1, 1);
+                break;
+            case Mapper.MIRROR_FOUR_SCREEN:
+                setPages(0, 1, 2, 3);
+                break;
+            case Mapper.MIRROR_HORIZONTAL:
+            default:
+                // NT0=phys0, NT1=phys0, NT2=phys1, NT3=phys1
+                setPages(0, 0, 1, 1);
+                break;
+        }
+    }
+
+    private void setPages(int nt0, int nt1, int nt2, int nt3) {
+        nametablePages[0] = nt0 * 0x400;
+        nametablePages[1] = nt1 * 0x400;
+        nametablePages[2] = nt2 * 0x400;
+        nametablePages[3] = nt3 * 0x400;
     }
 
+    // 0x2000-0x3EFF (0x3000-0x3EFF mirrors 0x2000-0x2EFF) to an index into nametableRAM
     private int mapNametableAddress(int addr) {
-        // Normalize to 0x2000-0x2FFF and mirror 0x3000-0x3EFF down
-        addr &= 0x3FFF;
-        if (addr >= 0x3000 && addr < 0x3F00) {
-            addr -= 0x1000;
+        return nametablePages[(addr >> 10) & 0x03] | (addr & 0x03FF);
+    }
+
+    /**
+     * Counter that changes whenever pattern, nametable or palette contents (or the mapper's
+     * view of them) may have changed. Used to tell when a VRAM snapshot is still current.
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Counter that changes whenever the pattern tables as seen through the mapper may have changed.
+     */
+    public int getChrGeneration() {
+        return chrGeneration;
+    }
+
+    /**
+     * Called after a mapper register write; CHR banks or mirroring may have changed.
+     * The generation counters only move if one of them actually did.
+     */
+    public void invalidate() {
+        int oldMirroring = mirroringMode;
+        updateMirroring();
+        if (mapper.getChrBankGeneration() != chrBankGeneration) {
+            refreshChrWindows();
+            chrGeneration++;
+            generation++;
+        } else if (mirroringMode != oldMirroring) {
+            generation++;
         }
-        int offset = (addr - 0x2000) & 0x0FFF; // 0..0xFFF within nametable region
-        int tableIndex = offset / 0x400;       // 0..3 (which nametable)
-        int inTable = offset & 0x03FF;         // 0..0x3FF within the table
-
-        // Map 4 logical tables to 2 physical tables based on mirroring
-        int physicalTable;
-        int mMode = mapper.getMirroringMode();
-        boolean effectiveVertical = (mMode == -1) ? mirrorVertical : (mMode == 0);
-
-        if (effectiveVertical) {
-            // Vertical: NT0=phys0, NT1=phys1, NT2=phys0, NT3=phys1
-            physicalTable = (tableIndex & 1);
-        } else {
-            // Horizontal: NT0=phys0, NT1=phys0, NT2=phys1, NT3=phys1
-            physicalTable = (tableIndex >> 1);
+    }
+
+    /**
+     * Copy the pattern tables as currently banked ($0000-$1FFF) into dest.
+     */
+    public void copyPatternTables(byte[] dest) {
+        for (int i = 0; i < 8; i++) {
+            System.arraycopy(chrWindows[i], chrWindowOffsets[i], dest, i * 0x400, 0x400);
         }
-        return (physicalTable * 0x400) | inTable; // index into 2KB RAM
     }
 
+    @Override
     public int read(int addr) {
         addr &= 0x3FFF;  // Mirror to 14-bit address space
 
         if (addr < 0x2000) {
-            // Pattern tables (CHR-ROM or CHR-RAM) via Mapper
-            return mapper.chrRead(addr);
+            // Pattern tables (CHR-ROM or CHR-RAM) straight from the mapper's bank windows
+            int window = addr >> 10;
+            return chrWindows[window][chrWindowOffsets[window] | (addr & 0x03FF)] & 0xFF;
         } else if (addr < 0x3F00) {
-            // Nametables with proper mirroring, including 0x3000-0x3EFF mirror handled in mapper
+            // Nametables through the mirroring page table (0x3000-0x3EFF mirrors 0x2000-0x2EFF)
             int ntIndex = mapNametableAddress(addr);
             return nametableRAM[ntIndex] & 0xFF;
         } else {
@@ -63,14 +152,16 @@ public class PPUMemory {
     public void write(int addr, int value) {
         addr &= 0x3FFF;
         value &= 0xFF;
+        generation++;
 
         if (addr < 0x2000) {
             // Pattern tables via Mapper
             mapper.chrWrite(addr, value);
+            chrGeneration++;
         } else if (addr < 0x3F00) {
             // Nametables with mirroring
             int ntIndex = mapNametableAddress(addr);
-            nametableRAM[ntIndex] = value;
+            nametableRAM[ntIndex] = (byte) value;
         } else {
             // Palette RAM
             int paddr = addr & 0x1F;
@@ -0,0 +1,99 @@
+package com.sidpatchy.yolones.Hardware;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Parsed ROM images keyed by the SHA-1 of the file contents, so any number of Cartridges
+ * running the same game share one copy of its PRG and CHR ROM. Safe to use from many threads.
+ */
+public class RomCache {
+    private static final RomCache SHARED = new RomCache();
+
+    private final ConcurrentHashMap<String, RomImage> images = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder retainedBytes = new LongAdder();
+
+    /** The cache used by {@link Cartridge#Cartridge(String)}. */
+    public static RomCache getShared() {
+        return SHARED;
+    }
+
+    public RomImage load(Path path) throws IOException {
+        return load(Files.readAllBytes(path));
+    }
+
+    /**
+     * Return the cached image for these file contents, parsing them on first sight.
+     */
+    public RomImage load(byte[] romData) {
+        String key = sha1(romData);
+        RomImage image = images.get(key);
+        if (image != null) {
+            hits.increment();
+            return image;
+        }
+
+        RomImage parsed = RomImage.parse(romData, key);
+        image = images.putIfAbsent(key, parsed);
+        if (image != null) {
+            hits.increment(); // Another thread parsed it first
+            return image;
+        }
+        misses.increment();
+        retainedBytes.add(parsed.getSize());
+        return parsed;
+    }
+
+    /** Drop every image. Cartridges already built keep theirs. */
+    public void clear() {
+        images.clear();
+        retainedBytes.reset();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /** Number of distinct images held. */
+    public int getSize() {
+        return images.size();
+    }
+
+    /** Bytes of PRG and CHR ROM held by the cache. */
+    public long getRetainedBytes() {
+        return retainedBytes.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("images=%d bytes=%d hits=%d misses=%d",
+                getSize(), getRetainedBytes(), getHits(), getMisses());
+    }
+
+    /**
+     * Hex SHA-1 of a whole ROM file, the key images are cached under.
+     */
+    public static String sha1(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(data);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e); // Required on every JVM
+        }
+    }
+}
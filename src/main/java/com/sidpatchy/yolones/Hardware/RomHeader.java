@@ -0,0 +1,172 @@
+package com.sidpatchy.yolones.Hardware;
+
+/**
+ * The 16 byte header of an iNES or NES 2.0 file.
+ * <p>
+ * NES 2.0 headers are read in full. For iNES 1.0 the fields NES 2.0 added are inferred the way
+ * most emulators do: 8KB of PRG-RAM and 8KB of CHR-RAM when there is no CHR-ROM. Old headers with
+ * junk in bytes 12-15 ("DiskDude!") only get the low mapper nibble.
+ */
+public final class RomHeader {
+    public static final int HEADER_SIZE = 16;
+    public static final int TRAINER_SIZE = 512;
+
+    // CPU/PPU timing
+    public static final int TIMING_NTSC = 0;
+    public static final int TIMING_PAL = 1;
+    public static final int TIMING_MULTI = 2;
+    public static final int TIMING_DENDY = 3;
+
+    private final boolean nes2;
+    private final int mapperNumber;
+    private final int submapper;
+    private final int prgRomSize;     // All sizes in bytes
+    private final int chrRomSize;
+    private final int prgRamSize;
+    private final int prgNvramSize;
+    private final int chrRamSize;
+    private final int chrNvramSize;
+    private final int timing;
+    private final boolean mirrorVertical;
+    private final boolean fourScreen;
+    private final boolean battery;
+    private final boolean trainer;
+
+    private RomHeader(byte[] data) {
+        int flags6 = data[6] & 0xFF;
+        int flags7 = data[7] & 0xFF;
+
+        mirrorVertical = (flags6 & 0x01) != 0;
+        battery = (flags6 & 0x02) != 0;
+        trainer = (flags6 & 0x04) != 0;
+        fourScreen = (flags6 & 0x08) != 0;
+        nes2 = (flags7 & 0x0C) == 0x08;
+
+        if (nes2) {
+            mapperNumber = (flags6 >> 4) | (flags7 & 0xF0) | ((data[8] & 0x0F) << 8);
+            submapper = (data[8] >> 4) & 0x0F;
+            prgRomSize = romSize(data[4] & 0xFF, data[9] & 0x0F, 16384);
+            chrRomSize = romSize(data[5] & 0xFF, (data[9] >> 4) & 0x0F, 8192);
+            prgRamSize = ramSize(data[10] & 0x0F);
+            prgNvramSize = ramSize((data[10] >> 4) & 0x0F);
+            chrRamSize = ramSize(data[11] & 0x0F);
+            chrNvramSize = ramSize((data[11] >> 4) & 0x0F);
+            timing = data[12] & 0x03;
+        } else {
+            // Check for "DiskDude" or other junk in bytes 12-15
+            boolean hasJunk = false;
+            for (int i = 12; i < 16; i++) {
+                if (data[i] != 0) {
+                    hasJunk = true;
+                    break;
+                }
+            }
+            mapperNumber = (flags6 >> 4) | (hasJunk ? 0 : flags7 & 0xF0);
+            submapper = 0;
+            prgRomSize = (data[4] & 0xFF) * 16384;
+            chrRomSize = (data[5] & 0xFF) * 8192;
+            int prgRam = Math.max(1, hasJunk ? 1 : data[8] & 0xFF) * 8192; // 0 means 8KB
+            prgRamSize = battery ? 0 : prgRam;
+            prgNvramSize = battery ? prgRam : 0;
+            chrRamSize = chrRomSize == 0 ? 8192 : 0;
+            chrNvramSize = 0;
+            timing = !hasJunk && (data[9] & 0x01) != 0 ? TIMING_PAL : TIMING_NTSC;
+        }
+    }
+
+    /**
+     * Parse the header at the start of data.
+     *
+     * @throws IllegalArgumentException if data does not start with an iNES header
+     */
+    public static RomHeader parse(byte[] data) {
+        if (data.length < HEADER_SIZE || data[0] != 'N' || data[1] != 'E' || data[2] != 'S' || data[3] != 0x1A) {
+            throw new IllegalArgumentException("Not an iNES file");
+        }
+        return new RomHeader(data);
+    }
+
+    // NES 2.0 ROM size: a 12 bit count of units, or exponent-multiplier form when the MSB nibble is $F
+    private static int romSize(int lsb, int msb, int unit) {
+        if (msb == 0x0F) {
+            int exponent = lsb >> 2;
+            int multiplier = (lsb & 0x03) * 2 + 1;
+            return (int) Math.min(Integer.MAX_VALUE, (1L << exponent) * multiplier);
+        }
+        return ((msb << 8) | lsb) * unit;
+    }
+
+    // NES 2.0 RAM size: 64 << shift bytes, or none
+    private static int ramSize(int shift) {
+        return shift == 0 ? 0 : 64 << shift;
+    }
+
+    /** Offset of PRG ROM in the file. */
+    public int getPrgOffset() {
+        return HEADER_SIZE + (trainer ? TRAINER_SIZE : 0);
+    }
+
+    /** Offset of CHR ROM in the file. */
+    public int getChrOffset() {
+        return getPrgOffset() + prgRomSize;
+    }
+
+    public boolean isNes2() {
+        return nes2;
+    }
+
+    public int getMapperNumber() {
+        return mapperNumber;
+    }
+
+    public int getSubmapper() {
+        return submapper;
+    }
+
+    public int getPrgRomSize() {
+        return prgRomSize;
+    }
+
+    public int getChrRomSize() {
+        return chrRomSize;
+    }
+
+    /** Volatile PRG-RAM at $6000-$7FFF. */
+    public int getPrgRamSize() {
+        return prgRamSize;
+    }
+
+    /** Battery-backed PRG-RAM at $6000-$7FFF. */
+    public int getPrgNvramSize() {
+        return prgNvramSize;
+    }
+
+    public int getChrRamSize() {
+        return chrRamSize;
+    }
+
+    public int getChrNvramSize() {
+        return chrNvramSize;
+    }
+
+    /** One of the TIMING_ constants. */
+    public int getTiming() {
+        return timing;
+    }
+
+    public boolean isMirrorVertical() {
+        return mirrorVertical;
+    }
+
+    public boolean isFourScreen() {
+        return fourScreen;
+    }
+
+    public boolean hasBattery() {
+        return battery;
+    }
+
+    public boolean hasTrainer() {
+        return trainer;
+    }
+}
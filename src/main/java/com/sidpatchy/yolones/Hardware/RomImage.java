@@ -0,0 +1,80 @@
+package com.sidpatchy.yolones.Hardware;
+
+import java.util.zip.CRC32;
+
+/**
+ * A parsed iNES file. The PRG and CHR ROM arrays are shared by every Cartridge built from the
+ * image and are never written; PRG-RAM and CHR-RAM belong to each Cartridge and its mapper.
+ */
+public final class RomImage {
+    private final String sha1;
+    private final long crc32;
+    private final RomHeader header;
+    private final byte[] prgROM;
+    private final byte[] chrROM;     // Empty when the cart uses CHR-RAM
+
+    private RomImage(String sha1, long crc32, RomHeader header, byte[] prgROM, byte[] chrROM) {
+        this.sha1 = sha1;
+        this.crc32 = crc32;
+        this.header = header;
+        this.prgROM = prgROM;
+        this.chrROM = chrROM;
+    }
+
+    /**
+     * Parse the contents of an iNES or NES 2.0 file.
+     *
+     * @param sha1 hex SHA-1 of romData, used as the image's identity
+     */
+    static RomImage parse(byte[] romData, String sha1) {
+        RomHeader header = RomHeader.parse(romData);
+
+        // PRG ROM follows the header (and trainer, if any), CHR ROM follows PRG ROM
+        byte[] prgROM = new byte[header.getPrgRomSize()];
+        System.arraycopy(romData, header.getPrgOffset(), prgROM, 0, prgROM.length);
+        byte[] chrROM = new byte[header.getChrRomSize()];
+        System.arraycopy(romData, header.getChrOffset(), chrROM, 0, chrROM.length);
+
+        return new RomImage(sha1, crc32(romData), header, prgROM, chrROM);
+    }
+
+    /**
+     * CRC32 of a ROM file without its 16 byte header, as used by most ROM databases.
+     */
+    public static long crc32(byte[] romData) {
+        CRC32 crc = new CRC32();
+        crc.update(romData, RomHeader.HEADER_SIZE, romData.length - RomHeader.HEADER_SIZE);
+        return crc.getValue();
+    }
+
+    byte[] getPrgROM() {
+        return prgROM;
+    }
+
+    byte[] getChrROM() {
+        return chrROM;
+    }
+
+    /** Hex SHA-1 of the whole file, header included. */
+    public String getSha1() {
+        return sha1;
+    }
+
+    /** CRC32 of the file without its 16 byte header, as used by most ROM databases. */
+    public long getCrc32() {
+        return crc32;
+    }
+
+    public RomHeader getHeader() {
+        return header;
+    }
+
+    public boolean hasChrRAM() {
+        return chrROM.length == 0;
+    }
+
+    /** Bytes of ROM data held by this image. */
+    public long getSize() {
+        return (long) prgROM.length + chrROM.length;
+    }
+}
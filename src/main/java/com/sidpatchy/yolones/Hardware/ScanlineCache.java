@@ -0,0 +1,128 @@
+package com.sidpatchy.yolones.Hardware;
+
+import java.util.Arrays;
+
+/**
+ * Memoizes whole scanlines. Each line's render inputs are reduced to a fingerprint: line-start v,
+ * fine X, PPUCTRL/PPUMASK, the nametable and attribute bytes the line fetches, the palette, the
+ * CHR generation and the OAM entries of sprites on the line. When a line's fingerprint matches
+ * the one it had last frame, its pixels and sprite 0 result are reused instead of redrawn.
+ * <p>
+ * The fingerprint holds the inputs themselves rather than a hash, so a hit is always exact.
+ */
+public class ScanlineCache {
+    // 4 registers + CHR generation + 32 palette entries + 33 tiles * 2 + 64 sprites * 5
+    private static final int MAX_KEY_LENGTH = 4 + 33 * 2 + 32 + 1 + 64 * 5;
+
+    private final int[][] keys = new int[240][MAX_KEY_LENGTH];
+    private final int[] keyLengths = new int[240];
+    private final int[][] pixels = new int[240][256];
+    private final boolean[] sprite0Hits = new boolean[240];
+    private int[] scratch = new int[MAX_KEY_LENGTH];
+
+    private long lookups = 0;
+    private long hits = 0;
+
+    /**
+     * Draw a complete line, from the cache if its inputs are unchanged since it was last drawn.
+     *
+     * @return true if sprite 0 hit occurred on this line
+     */
+    boolean renderLine(PPUMemory memory, int y, int lineV, int fineX, int ppuCtrl, int ppuMask,
+                       int[] oam, int[] framebuffer, int[] bgPixels) {
+        int length = fingerprint(memory, y, lineV, fineX, ppuCtrl, ppuMask, oam, scratch);
+        lookups++;
+
+        if (keyLengths[y] == length && Arrays.equals(keys[y], 0, length, scratch, 0, length)) {
+            hits++;
+            System.arraycopy(pixels[y], 0, framebuffer, y * 256, 256);
+            return sprite0Hits[y];
+        }
+
+        boolean hit = PPU.rasterizeSpan(memory, y, 0, 256, lineV, fineX, ppuCtrl, ppuMask,
+                oam, framebuffer, bgPixels);
+        System.arraycopy(framebuffer, y * 256, pixels[y], 0, 256);
+        sprite0Hits[y] = hit;
+
+        // Keep the new fingerprint, reuse the old array as the next scratch buffer
+        int[] old = keys[y];
+        keys[y] = scratch;
+        keyLengths[y] = length;
+        scratch = old;
+        return hit;
+    }
+
+    private static int fingerprint(PPUMemory memory, int y, int lineV, int fineX, int ppuCtrl, int ppuMask,
+                                   int[] oam, int[] key) {
+        int n = 0;
+        key[n++] = lineV;
+        key[n++] = fineX;
+        key[n++] = ppuCtrl;
+        key[n++] = ppuMask;
+        key[n++] = memory.getChrGeneration();
+
+        for (int i = 0; i < 32; i++) {
+            key[n++] = memory.read(0x3F00 + i);
+        }
+
+        if ((ppuMask & 0x18) == 0) return n; // Rendering disabled, only the backdrop matters
+
+        if ((ppuMask & 0x08) != 0) {
+            // Same tiles rasterizeSpan walks: one per 8 pixels, starting at the line-start v
+            int tiles = (fineX + 255) / 8 + 1;
+            int tempV = lineV;
+            for (int tile = 0; tile < tiles; tile++) {
+                int coarseX = tempV & 0x001F;
+                int coarseY = (tempV & 0x03E0) >> 5;
+                int nametableBase = 0x2000 | (tempV & 0x0C00);
+                key[n++] = memory.read(0x2000 | (tempV & 0x0FFF));
+                key[n++] = memory.read(nametableBase + 0x3C0 + (coarseY / 4) * 8 + (coarseX / 4));
+
+                if (coarseX == 31) {
+                    tempV &= 0xFFE0;
+                    tempV ^= 0x0400;
+                } else {
+                    tempV++;
+                }
+            }
+        }
+
+        if ((ppuMask & 0x10) != 0) {
+            int height = (ppuCtrl & 0x20) != 0 ? 16 : 8;
+            for (int i = 0; i < 64; i++) {
+                int spriteY = (oam[i * 4] & 0xFF) + 1;
+                if (y < spriteY || y >= spriteY + height) continue;
+                key[n++] = i;
+                key[n++] = oam[i * 4];
+                key[n++] = oam[i * 4 + 1];
+                key[n++] = oam[i * 4 + 2];
+                key[n++] = oam[i * 4 + 3];
+            }
+        }
+
+        return n;
+    }
+
+    public long getLookups() {
+        return lookups;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    /** Fraction of lines reused from the previous frame, 0.0 to 1.0. */
+    public double getHitRate() {
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+
+    public void resetStats() {
+        lookups = 0;
+        hits = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("lines=%d reused=%d (%.1f%%)", lookups, hits, getHitRate() * 100);
+    }
+}
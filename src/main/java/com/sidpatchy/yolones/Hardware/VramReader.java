@@ -0,0 +1,8 @@
+package com.sidpatchy.yolones.Hardware;
+
+/**
+ * Read access to the PPU's 14-bit address space (pattern tables, nametables, palette).
+ */
+public interface VramReader {
+    int read(int addr);
+}
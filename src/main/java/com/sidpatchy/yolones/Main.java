@@ -1,47 +1,127 @@
 package com.sidpatchy.yolones;
 
-import com.sidpatchy.yolones.Hardware.CPU6502;
+import com.sidpatchy.yolones.Hardware.BatterySave;
 import com.sidpatchy.yolones.Hardware.Cartridge;
-import com.sidpatchy.yolones.Hardware.CPUMemory;
-import com.sidpatchy.yolones.Hardware.APU;
-import com.sidpatchy.yolones.Hardware.PPU;
-import com.sidpatchy.yolones.Hardware.PPUMemory;
+import com.sidpatchy.yolones.Hardware.RomCache;
 import com.sidpatchy.yolones.input.ControllerHandler;
 import com.sidpatchy.yolones.input.GamepadController;
 import com.sidpatchy.yolones.input.KeyboardController;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
 import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Main {
     private static final Logger logger = LogManager.getLogger(Main.class);
-    public static void main(String[] args) throws IOException, InterruptedException {
+    private static final int MAX_FRAMESKIP = 4;
+    private static final long SHUTDOWN_TIMEOUT_MS = 2000;
+    private static final double DEFAULT_CAPTURE_SECONDS = 60;
+
+    // Set by the shutdown hook (window closed or a signal); the emulation loop then stops and
+    // finishes its files on its own thread, counting down stopped when done
+    private static final AtomicBoolean stopRequested = new AtomicBoolean();
+    private static final CountDownLatch stopped = new CountDownLatch(1);
+
+    public static void main(String[] args) throws IOException {
         // 1. Load the ROM, various roms listed for testing purposes.
         //Cartridge cart = new Cartridge("/var/home/osprey/Downloads/nestest.nes");
         //Cartridge cart = new Cartridge("/var/home/osprey/Games/ROMs/NES Games/AccuracyCoin.nes");
         //Cartridge cart = new Cartridge("/var/home/osprey/Games/ROMs/NES Games/Super Mario Bros. 3 (USA).nes");
-        Cartridge cart = new Cartridge("/var/home/osprey/Downloads/Super Mario Bros. (Japan, USA).nes");
-
-        // 2. Create PPU memory and PPU
-        PPUMemory ppuMemory = new PPUMemory(cart.getMapper(), cart.isMirrorVertical());
-        PPU ppu = new PPU(ppuMemory, cart.getMapper());
+        String romPath = args.length > 0 ? args[0] : "/var/home/osprey/Downloads/Super Mario Bros. (Japan, USA).nes";
+        Cartridge cart = new Cartridge(romPath);
+        String romName = java.nio.file.Paths.get(romPath).getFileName().toString();
+        logger.debug("Loaded {} (sha1 {}), ROM cache: {}", romName, cart.getImage().getSha1(), RomCache.getShared());
+
+        // Battery-backed carts keep their PRG-RAM in a .sav file next to the ROM
+        BatterySave batterySave = null;
+        if (cart.hasBattery() && cart.getMapper().getPrgRAM() != null) {
+            String savePath = romPath.replaceFirst("(?i)\\.nes$", "") + ".sav";
+            batterySave = BatterySave.open(java.nio.file.Paths.get(savePath), cart.getMapper());
+        }
 
-        // 3. Create APU, CPU memory with the cart, PPU, and APU
-        APU apu = new APU();
-        CPUMemory memory = new CPUMemory(cart, ppu, apu);
+        // 2. Create the emulated hardware (PPU, APU, CPU and their memory maps)
+        Emulator emulator = new Emulator(cart);
+        // -Dyolones.overclock.scanlines=N gives games N extra scanlines of CPU time per frame
+        emulator.setOverclockScanlines(Integer.getInteger("yolones.overclock.scanlines", 0));
+
+        // Output rate can be overridden, e.g. -Dyolones.audio.rate=96000 for capture pipelines
+        int audioRate = Integer.getInteger("yolones.audio.rate", AudioPlayer.DEFAULT_DEVICE_RATE);
+
+        // Closing the window (System.exit) or a signal only asks the loop to stop, and waits for
+        // it: the battery save's final copy must not race the CPU's writes
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            stopRequested.set(true);
+            try {
+                stopped.await(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "emulation-stop"));
+
+        try {
+            // -Dyolones.audio.file=out.wav (or .raw) captures headless instead of playing
+            String audioFile = System.getProperty("yolones.audio.file");
+            if (audioFile != null) {
+                capture(emulator, java.nio.file.Paths.get(audioFile), audioRate);
+            } else {
+                play(emulator, audioRate, romName);
+            }
+        } finally {
+            if (batterySave != null) {
+                batterySave.close();
+            }
+            stopped.countDown();
+        }
+    }
 
-        // 4. Create CPU with memory
-        CPU6502 cpu = new CPU6502(memory);
+    /**
+     * Batch capture for machines without a display or sound device: no window, input or pacing.
+     * Runs -Dyolones.capture.frames frames (or -Dyolones.capture.seconds of emulated time, 60 by
+     * default) as fast as possible, then finishes the file and writes per-frame audio hashes to
+     * "&lt;file&gt;.crc".
+     */
+    private static void capture(Emulator emulator, java.nio.file.Path audioFile, int audioRate) throws IOException {
+        double seconds = Double.parseDouble(System.getProperty("yolones.capture.seconds", String.valueOf(DEFAULT_CAPTURE_SECONDS)));
+        long frames = Long.getLong("yolones.capture.frames", Math.round(seconds * 1e9 / FramePacer.NES_FRAME_NS));
+
+        FileAudioSink fileSink = new FileAudioSink(audioFile, audioRate);
+        emulator.setAudioSink(fileSink);
+        emulator.reset();
+
+        long frame = 0;
+        long start = System.nanoTime();
+        try {
+            while (frame < frames && emulator.isRunning() && !stopRequested.get()) {
+                emulator.runFrame(false);
+                frame++;
+            }
+        } finally {
+            fileSink.close();
+        }
+        fileSink.writeFrameHashes(java.nio.file.Paths.get(audioFile + ".crc"));
+        logger.info("Captured {} of {} frames in {} ms", frame, frames, (System.nanoTime() - start) / 1_000_000);
+    }
 
-        // 5. Create window and audio
+    // Windowed play with a real audio device, input and pacing
+    private static void play(Emulator emulator, int audioRate, String romName) {
+        // 3. Create window and audio
         FrameBufferRenderer renderer = new FrameBufferRenderer(3);
         javax.swing.JFrame frame = FrameBufferRenderer.createWindow(renderer);
-        AudioPlayer audioPlayer = new AudioPlayer();
+        // Tune the device buffer per host with -Dyolones.audio.bufferMs, watching the metrics
+        AudioPlayer audioSink = new AudioPlayer(audioRate, Integer.getInteger("yolones.audio.bufferMs", AudioPlayer.DEFAULT_BUFFER_MS));
+        // -Dyolones.audio.overlay=true shows them on screen
+        if (Boolean.getBoolean("yolones.audio.overlay")) {
+            renderer.setAudioOverlay(audioSink.getMetrics());
+        }
 
         // Input setup via ControllerHandler
         // Priority: Gamepad -> Keyboard
-        ControllerHandler controllerHandler = new ControllerHandler(memory);
+        ControllerHandler controllerHandler = new ControllerHandler(emulator.getMemory());
         GamepadController gamepad = new GamepadController();
         if (gamepad.isConnected()) {
             controllerHandler.setController(gamepad, renderer, frame);
@@ -51,79 +131,104 @@ public class Main {
         }
         renderer.setFocusable(true);
         renderer.requestFocusInWindow();
+        emulator.setControllerHandler(controllerHandler);
+        emulator.setAudioSink(audioSink);
 
-        // 6. Reset the CPU (sets PC to reset vector)
-        cpu.reset();
-
-        // 7. Run the emulation loop
-        final double TARGET_FPS = 60.098;
-        final double CPU_FREQ = 1789773.0;
-        final long NS_PER_FRAME = (long) (1_000_000_000 / TARGET_FPS);
-        final int CYCLES_PER_FRAME = 29780; // Roughly 262 * 341 / 3
-        long lastFrameTime = System.nanoTime();
-
-        double cyclesPerSample = CPU_FREQ / audioPlayer.getSampleRate();
-        double audioCycleCounter = 0;
-
-        while (cpu.isRunning()) {
-            int cyclesThisFrame = 0;
-            while (cyclesThisFrame < CYCLES_PER_FRAME) {
-                // Update input state (maybe not every instruction, but every frame is too slow)
-                // For now, let's keep it here or move it to a specific point.
-                if (cyclesThisFrame % 100 == 0) {
-                    controllerHandler.update();
-                }
+        // 4. Reset the CPU (sets PC to reset vector)
+        emulator.reset();
 
-                int cycles = cpu.step();
-                cyclesThisFrame += cycles;
+        // Rasterize frames off the emulation thread when there are cores to spare,
+        // otherwise reuse unchanged scanlines from the previous frame
+        if (Runtime.getRuntime().availableProcessors() >= 4) {
+            emulator.getPPU().setDeferredRendering(true);
+        } else {
+            emulator.getPPU().setScanlineCache(true);
+        }
 
-                for (int i = 0; i < cycles; i++) {
-                    apu.tick();
-                    audioCycleCounter++;
-                    if (audioCycleCounter >= cyclesPerSample) {
-                        audioPlayer.addSample(apu.getSample());
-                        audioCycleCounter -= cyclesPerSample;
-                    }
-                }
+        // 5. Run the emulation loop
+        final long NS_PER_FRAME = FramePacer.NES_FRAME_NS;
 
-                for (int i = 0; i < cycles * 3; i++) {
-                    if (ppu.tick()) {
-                        cpu.triggerNMI();
-                    }
-                }
+        FrameskipGovernor frameskip = new FrameskipGovernor(NS_PER_FRAME, MAX_FRAMESKIP, audioSink);
 
-                if (cart.getMapper().hasIRQ() || apu.hasIRQ()) {
-                    cpu.triggerIRQ();
+        // Pace by the audio device by default, or -Dyolones.pacing=wall|display
+        String pacing = System.getProperty("yolones.pacing", "audio");
+        FramePacer pacer = new FramePacer(FramePacer.Source.valueOf(pacing.toUpperCase()), audioSink);
+
+        // Run speed: -Dyolones.speed=2 (or 0.5, unlimited, step), changed at runtime with
+        // F5 unlimited, F6/F7 slower/faster, F8 pause and F9 to advance a paused frame
+        SpeedController speed = new SpeedController(emulator, audioSink, pacer, frameskip);
+        String initialSpeed = System.getProperty("yolones.speed", "1");
+        if (initialSpeed.equalsIgnoreCase("unlimited")) {
+            speed.setUnlimited();
+        } else if (initialSpeed.equalsIgnoreCase("step")) {
+            speed.setFrameStep();
+        } else {
+            speed.setMultiplier(Double.parseDouble(initialSpeed));
+        }
+        renderer.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                switch (e.getKeyCode()) {
+                    case KeyEvent.VK_F5:
+                        if (speed.getMode() == SpeedController.Mode.UNLIMITED) {
+                            speed.setMultiplier(speed.getMultiplier());
+                        } else {
+                            speed.setUnlimited();
+                        }
+                        break;
+                    case KeyEvent.VK_F6:
+                        speed.setMultiplier(Math.max(0.125, speed.getMultiplier() / 2));
+                        break;
+                    case KeyEvent.VK_F7:
+                        speed.setMultiplier(Math.min(8, speed.getMultiplier() * 2));
+                        break;
+                    case KeyEvent.VK_F8:
+                        if (speed.getMode() == SpeedController.Mode.FRAME_STEP) {
+                            speed.setMultiplier(speed.getMultiplier());
+                        } else {
+                            speed.setFrameStep();
+                        }
+                        break;
+                    case KeyEvent.VK_F9:
+                        speed.step();
+                        break;
                 }
             }
+        });
+
+        long frameCount = 0;
+        while (emulator.isRunning() && !stopRequested.get()) {
+            if (!speed.beginFrame()) {
+                continue; // Paused
+            }
+            long frameStart = System.nanoTime();
+            boolean present = speed.shouldPresent();
+            boolean render = present && frameskip.shouldRender();
+            emulator.runFrame(render);
 
             // Frame is "complete" (reached cycle target)
-            renderer.updateFrame(ppu.getFramebuffer());
+            if (render) {
+                renderer.updateFrame(emulator.getFramebuffer());
+            }
+            if (present) {
+                frameskip.frameFinished(System.nanoTime() - frameStart);
+            }
 
-            // Sync to frame rate
-            // We use the audio buffer as our primary timing source.
-            // If the audio buffer is full, line.write() will block and slow us down to real-time.
-            // If the audio buffer is NOT full, we might be running too fast, so we sleep a bit.
-            
-            int available = audioPlayer.getAvailableBytes();
-            int total = audioPlayer.getBufferSize();
-            int buffered = total - available;
-            
-            // We want to maintain a healthy audio cushion to prevent stuttering.
-            // If we have less than 40ms buffered, we don't sleep at all, allowing the 
-            // emulator to run as fast as possible to fill the buffer.
-            // 40ms @ 44100Hz 16-bit mono = 44100 * 0.04 * 2 = 3528 bytes.
-            if (buffered > 3528) {
-                long currentTime = System.nanoTime();
-                long elapsedTime = currentTime - lastFrameTime;
-                long sleepTimeNs = NS_PER_FRAME - elapsedTime;
-
-                if (sleepTimeNs > 1_000_000) {
-                    Thread.sleep(sleepTimeNs / 1_000_000);
+            if (++frameCount % 600 == 0) {
+                logger.debug("Speed: {}", speed);
+                logger.debug("Frameskip: {}", frameskip);
+                logger.debug("Pacing: {}", pacer);
+                logger.debug("Audio {} -> {} Hz, resampler {} samples/s",
+                        audioSink.getSampleRate(), audioSink.getDeviceRate(),
+                        String.format("%.0f", audioSink.getResampleThroughput()));
+                logger.debug("Audio metrics: {}", audioSink.getMetrics());
+                if (emulator.getPPU().getScanlineCache() != null) {
+                    logger.debug("Scanline cache ({}): {}", romName, emulator.getPPU().getScanlineCache());
                 }
             }
-            
-            lastFrameTime = System.nanoTime();
+
+            // Sync to frame rate
+            speed.endFrame();
         }
     }
 }
@@ -0,0 +1,215 @@
+package com.sidpatchy.yolones;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Converts a mono float stream between two sample rates with a windowed-sinc polyphase filter.
+ * <p>
+ * The rate ratio is reduced to in:out = M:L. Output sample n lies n * M / L input samples into the
+ * stream, so its fractional position is one of L phases and each phase has its own precomputed
+ * kernel. When downsampling the cutoff follows the output rate and the kernels widen to match.
+ * Ratios that need more than {@link #MAX_PHASES} phases are rounded to the nearest ratio that
+ * does not; the error is far below what the player's rate control corrects anyway.
+ * <p>
+ * Each output is a dot product of a kernel with the input history. With the jdk.incubator.vector
+ * module present it is computed with {@link VectorDotProduct}, otherwise with a scalar loop.
+ */
+public final class PolyphaseResampler {
+    private static final int MAX_PHASES = 4096;
+    private static final int BASE_TAPS = 32;     // Kernel length in input samples when upsampling
+    private static final double CUTOFF = 0.45;   // Fraction of the lower of the two rates
+    private static final boolean VECTOR_AVAILABLE = vectorAvailable();
+
+    private final int inRate;
+    private final int outRate;
+    private final int phases;      // L
+    private final int step;        // M
+    private final int taps;
+    private final float[] kernels; // phases * taps, phase-major
+    private final boolean vector;  // Use VectorDotProduct
+
+    private float[] history;       // Unconsumed input, oldest first
+    private int filled;            // Valid samples in history
+    private int phase = 0;         // Fractional position of the next output, in 1/L input samples
+
+    public PolyphaseResampler(int inRate, int outRate) {
+        this(inRate, outRate, VECTOR_AVAILABLE);
+    }
+
+    /**
+     * @param vector use the Vector API kernel; must only be true when {@link #isVectorAvailable()}
+     */
+    PolyphaseResampler(int inRate, int outRate, boolean vector) {
+        if (inRate <= 0 || outRate <= 0) {
+            throw new IllegalArgumentException("Sample rates must be positive: " + inRate + " -> " + outRate);
+        }
+        this.inRate = inRate;
+        this.outRate = outRate;
+        this.vector = vector;
+
+        int gcd = gcd(inRate, outRate);
+        int l = outRate / gcd;
+        int m = inRate / gcd;
+        if (l > MAX_PHASES) {
+            m = (int) Math.max(1, Math.round((double) m * MAX_PHASES / l));
+            l = MAX_PHASES;
+        }
+        this.phases = l;
+        this.step = m;
+
+        // Downsampling lowers the cutoff, which stretches the sinc; widen the kernel to keep its shape
+        double scale = Math.min(1.0, (double) outRate / inRate);
+        this.taps = ((int) Math.ceil(BASE_TAPS / scale) + 3) & ~3;
+        this.kernels = buildKernels(phases, taps, CUTOFF * scale);
+        this.history = new float[taps * 4];
+        // Start with a window of silence so the first output is the first input, delayed by taps / 2
+        this.filled = taps - 1;
+    }
+
+    // The module has to be resolved at startup; looking first keeps VectorDotProduct unloaded without it
+    private static boolean vectorAvailable() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) return false;
+        try {
+            return VectorDotProduct.lanes() >= 4;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    /** Whether new resamplers compute with the Vector API. */
+    public static boolean isVectorAvailable() {
+        return VECTOR_AVAILABLE;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    private static float[] buildKernels(int phases, int taps, double cutoff) {
+        float[] kernels = new float[phases * taps];
+        int half = taps / 2;
+        double[] k = new double[taps];
+        for (int p = 0; p < phases; p++) {
+            double fraction = (double) p / phases;
+            double sum = 0;
+            for (int j = 0; j < taps; j++) {
+                double x = j - (half - 1) - fraction; // Distance from the output position, in input samples
+                double sinc = x == 0 ? 1 : Math.sin(Math.PI * 2 * cutoff * x) / (Math.PI * 2 * cutoff * x);
+                double w = Math.abs(x) >= half ? 0
+                        : 0.42 + 0.5 * Math.cos(Math.PI * x / half) + 0.08 * Math.cos(2 * Math.PI * x / half);
+                k[j] = sinc * w;
+                sum += k[j];
+            }
+            // Unity gain at DC for every phase, so a constant input stays exactly constant
+            for (int j = 0; j < taps; j++) {
+                kernels[p * taps + j] = (float) (k[j] / sum);
+            }
+        }
+        return kernels;
+    }
+
+    public int getInputRate() {
+        return inRate;
+    }
+
+    public int getOutputRate() {
+        return outRate;
+    }
+
+    public boolean isVectorized() {
+        return vector;
+    }
+
+    int getPhases() {
+        return phases;
+    }
+
+    int getTaps() {
+        return taps;
+    }
+
+    /**
+     * Largest number of samples {@link #process} can produce from count input samples.
+     */
+    public int maxOutput(int count) {
+        return (int) (((long) count + taps) * phases / step) + 1;
+    }
+
+    /**
+     * Feed count input samples and write every output sample that is now complete.
+     *
+     * @param out must hold at least {@link #maxOutput}(count) samples
+     * @return the number of samples written to out
+     */
+    public int process(float[] in, int offset, int count, float[] out) {
+        if (filled + count > history.length) {
+            float[] grown = new float[Math.max(history.length * 2, filled + count)];
+            System.arraycopy(history, 0, grown, 0, filled);
+            history = grown;
+        }
+        System.arraycopy(in, offset, history, filled, count);
+        filled += count;
+
+        float[] h = history;
+        float[] k = kernels;
+        int n = 0;
+        int pos = 0;
+        int p = phase;
+        while (pos + taps <= filled) {
+            out[n++] = vector ? VectorDotProduct.dot(h, pos, k, p * taps, taps) : dot(h, pos, k, p * taps, taps);
+
+            p += step;
+            while (p >= phases) {
+                p -= phases;
+                pos++;
+            }
+        }
+        phase = p;
+
+        // Keep the samples the next outputs still need
+        filled -= pos;
+        System.arraycopy(h, pos, h, 0, filled);
+        return n;
+    }
+
+    // Scalar kernel. Four independent sums keep the multiply-adds pipelined; the JIT won't
+    // reorder a single float sum on its own. length is a multiple of 4.
+    private static float dot(float[] h, int pos, float[] k, int base, int length) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        for (int j = 0; j < length; j += 4) {
+            s0 += h[pos + j] * k[base + j];
+            s1 += h[pos + j + 1] * k[base + j + 1];
+            s2 += h[pos + j + 2] * k[base + j + 2];
+            s3 += h[pos + j + 3] * k[base + j + 3];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Convert samples in -1..1 to 16-bit little-endian PCM, clamping anything outside that range.
+     *
+     * @param scratch holds at least count samples; the conversion is done into it first so both
+     *                passes are simple loops over arrays
+     */
+    public static void toPcm16(float[] src, int offset, int count, short[] scratch, byte[] dst) {
+        toPcm16(src, offset, count, scratch);
+        ShortBuffer pcm = ByteBuffer.wrap(dst, 0, count * 2).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+        pcm.put(scratch, 0, count);
+    }
+
+    /**
+     * Convert samples in -1..1 to 16-bit PCM values in dst, clamping anything outside that range.
+     */
+    public static void toPcm16(float[] src, int offset, int count, short[] dst) {
+        for (int i = 0; i < count; i++) {
+            dst[i] = (short) Math.max(-32768, Math.min(32767, (int) (src[offset + i] * 32767)));
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.sidpatchy.yolones;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs emulation faster or slower than real time, or a frame at a time.
+ * <ul>
+ *     <li>{@link Mode#MULTIPLIER}: frames run speed times as often as normal. Audio keeps
+ *     playing at its own rate: above 1x whole frames of audio are dropped, below 1x frames are
+ *     repeated, so the pitch stays the same and the audio queue never backs up.</li>
+ *     <li>{@link Mode#UNLIMITED}: frames run back to back with no pacing, no presentation and no
+ *     audio; the APU skips its output work entirely.</li>
+ *     <li>{@link Mode#FRAME_STEP}: emulation waits until {@link #step()} is called, then runs
+ *     one frame. Stepped frames are silent.</li>
+ * </ul>
+ * Mode changes may come from any thread and take effect at the next frame.
+ * <p>
+ * Usage per frame: {@link #beginFrame()}, run and (if {@link #shouldPresent()}) draw the frame,
+ * then {@link #endFrame()}.
+ */
+public class SpeedController {
+    public enum Mode { UNLIMITED, MULTIPLIER, FRAME_STEP }
+
+    private static final long MEASURE_NS = 1_000_000_000L;
+    private static final long STEP_POLL_NS = 1_000_000;
+
+    private final Emulator emulator;
+    private final FrameAudio frameAudio;   // What the emulator writes to in MULTIPLIER mode
+    private final FramePacer pacer;        // May be null, then frames are never waited for
+    private final FrameskipGovernor frameskip; // May be null
+
+    private volatile Mode requestedMode = Mode.MULTIPLIER;
+    private volatile double requestedSpeed = 1.0;
+    private Mode mode = null;
+    private double speed = 0;
+    private volatile int pendingSteps = 0;
+
+    // Achieved speed, measured over roughly MEASURE_NS windows
+    private long windowStart = System.nanoTime();
+    private long windowFrames = 0;
+    private volatile double achievedSpeed = 0;
+
+    /**
+     * @param audioSink audio output, may be null
+     * @param pacer     paces MULTIPLIER mode, may be null for no pacing at all
+     * @param frameskip has its frame budget scaled with the speed, may be null
+     */
+    public SpeedController(Emulator emulator, AudioSink audioSink, FramePacer pacer, FrameskipGovernor frameskip) {
+        this.emulator = emulator;
+        this.frameAudio = audioSink != null ? new FrameAudio(audioSink) : null;
+        this.pacer = pacer;
+        this.frameskip = frameskip;
+    }
+
+    /** Run speed times faster than real time, e.g. 2.0, or 0.5 for slow motion. */
+    public void setMultiplier(double speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("Speed must be positive: " + speed);
+        }
+        requestedSpeed = speed;
+        requestedMode = Mode.MULTIPLIER;
+    }
+
+    public void setUnlimited() {
+        requestedMode = Mode.UNLIMITED;
+    }
+
+    public void setFrameStep() {
+        requestedMode = Mode.FRAME_STEP;
+    }
+
+    /** Allow one more frame to run in FRAME_STEP mode. */
+    public synchronized void step() {
+        pendingSteps++;
+    }
+
+    public Mode getMode() {
+        return requestedMode;
+    }
+
+    /** Multiplier used in MULTIPLIER mode. */
+    public double getMultiplier() {
+        return requestedSpeed;
+    }
+
+    /**
+     * Prepare the next frame, applying any mode change.
+     *
+     * @return false if no frame should run now (FRAME_STEP mode without a pending step); the
+     *         call has already waited briefly, so the caller can simply try again
+     */
+    public boolean beginFrame() {
+        Mode newMode = requestedMode;
+        double newSpeed = requestedSpeed;
+        if (newMode != mode || newSpeed != speed) {
+            apply(newMode, newSpeed);
+        }
+
+        if (mode == Mode.FRAME_STEP) {
+            synchronized (this) {
+                if (pendingSteps > 0) {
+                    pendingSteps--;
+                    return true;
+                }
+            }
+            LockSupport.parkNanos(STEP_POLL_NS);
+            return false;
+        }
+        return true;
+    }
+
+    private void apply(Mode newMode, double newSpeed) {
+        mode = newMode;
+        speed = newSpeed;
+        // Only MULTIPLIER produces audio; without a sink the APU does no output work at all
+        emulator.setAudioSink(mode == Mode.MULTIPLIER ? frameAudio : null);
+        if (frameAudio != null) {
+            frameAudio.setSpeed(newSpeed);
+        }
+        if (pacer != null) {
+            pacer.setSpeed(newSpeed);
+        }
+        if (frameskip != null) {
+            frameskip.setSpeed(newSpeed);
+        }
+        windowStart = System.nanoTime();
+        windowFrames = 0;
+    }
+
+    /** Whether the current frame should be drawn and shown. */
+    public boolean shouldPresent() {
+        return mode != Mode.UNLIMITED;
+    }
+
+    /**
+     * Finish a frame: wait until the next one is due (MULTIPLIER mode) and update the achieved
+     * speed.
+     */
+    public void endFrame() {
+        if (mode == Mode.MULTIPLIER && pacer != null) {
+            pacer.pace();
+        }
+
+        windowFrames++;
+        long elapsed = System.nanoTime() - windowStart;
+        if (elapsed >= MEASURE_NS) {
+            achievedSpeed = windowFrames * (double) FramePacer.NES_FRAME_NS / elapsed;
+            windowStart += elapsed;
+            windowFrames = 0;
+        }
+    }
+
+    /** Emulated time per wall time over the last second, 1.0 being real time. */
+    public double getAchievedSpeed() {
+        return achievedSpeed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("mode=%s speed=%.2fx achieved=%.2fx", mode,
+                mode == Mode.MULTIPLIER ? speed : 0, achievedSpeed);
+    }
+
+    /**
+     * Passes whole frames of audio on to the real sink 1/speed times each: some dropped above 1x,
+     * some repeated below. At 1x the samples go through untouched.
+     */
+    private static class FrameAudio implements AudioSink {
+        private static final int FADE = 32; // Samples over which a seam's step is ramped out
+
+        private final AudioSink target;
+        private float[] frame = new float[2048];
+        private final float[] head = new float[FADE]; // Unramped start of the frame
+        private int frameLength = 0;
+        private double speed = 1.0;
+        private double credit = 0;  // Copies of the current frame owed to the sink
+        private float last = 0;     // Last sample passed on
+
+        FrameAudio(AudioSink target) {
+            this.target = target;
+        }
+
+        void setSpeed(double speed) {
+            this.speed = speed;
+            this.credit = 0;
+        }
+
+        @Override
+        public int getSampleRate() {
+            return target.getSampleRate();
+        }
+
+        @Override
+        public void addSamples(float[] samples, int count) {
+            if (speed == 1.0) {
+                target.addSamples(samples, count);
+                if (count > 0) {
+                    last = samples[count - 1];
+                }
+                return;
+            }
+            if (frameLength + count > frame.length) {
+                frame = Arrays.copyOf(frame, Math.max(frame.length * 2, frameLength + count));
+            }
+            System.arraycopy(samples, 0, frame, frameLength, count);
+            frameLength += count;
+        }
+
+        @Override
+        public void endFrame() {
+            if (speed == 1.0) {
+                target.endFrame();
+                return;
+            }
+            credit += 1.0 / speed;
+            while (credit >= 1) {
+                if (frameLength > 0) {
+                    // A dropped or repeated frame leaves a step at the seam; ramp it out so it doesn't click
+                    float offset = last - frame[0];
+                    int fade = Math.min(FADE, frameLength);
+                    System.arraycopy(frame, 0, head, 0, fade);
+                    for (int i = 0; i < fade; i++) {
+                        frame[i] += offset * (fade - i) / (fade + 1);
+                    }
+                    target.addSamples(frame, frameLength);
+                    System.arraycopy(head, 0, frame, 0, fade);
+                    last = frame[frameLength - 1];
+                }
+                credit--;
+            }
+            target.endFrame();
+            frameLength = 0;
+        }
+
+        @Override
+        public double getRateRatio() {
+            return target.getRateRatio();
+        }
+
+        @Override
+        public int getBufferedBytes() {
+            return target.getBufferedBytes();
+        }
+
+        @Override
+        public int getTargetBufferedBytes() {
+            return target.getTargetBufferedBytes();
+        }
+
+        @Override
+        public int getBufferSize() {
+            return target.getBufferSize();
+        }
+
+        @Override
+        public void close() {
+            target.close();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.sidpatchy.yolones;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Dot products for {@link PolyphaseResampler} on the incubating Vector API, in the widest float
+ * vectors the CPU has. Only touched when the jdk.incubator.vector module is present at run time
+ * (--add-modules jdk.incubator.vector); otherwise this class is never loaded.
+ */
+final class VectorDotProduct {
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    private VectorDotProduct() {
+    }
+
+    /** Floats per vector, 1 if the hardware has no usable vector unit. */
+    static int lanes() {
+        return SPECIES.length();
+    }
+
+    /**
+     * Sum of a[aOffset + i] * b[bOffset + i] for i below length.
+     */
+    static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector sum = FloatVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            FloatVector va = FloatVector.fromArray(SPECIES, a, aOffset + i);
+            FloatVector vb = FloatVector.fromArray(SPECIES, b, bOffset + i);
+            sum = va.fma(vb, sum);
+        }
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        // Kernels are a multiple of 4 long, so at most a few lanes' worth is left
+        for (; i < length; i++) {
+            result += a[aOffset + i] * b[bOffset + i];
+        }
+        return result;
+    }
+}
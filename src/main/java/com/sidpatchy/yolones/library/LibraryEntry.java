@@ -0,0 +1,63 @@
+package com.sidpatchy.yolones.library;
+
+import com.sidpatchy.yolones.Hardware.RomHeader;
+
+/**
+ * One ROM file in a library index.
+ */
+public class LibraryEntry {
+    private final String path;
+    private final long fileSize;
+    private final long lastModified;   // Epoch millis
+    private final String sha1;
+    private final long crc32;
+    private final byte[] rawHeader;
+    private final RomHeader header;
+
+    LibraryEntry(String path, long fileSize, long lastModified, String sha1, long crc32, byte[] rawHeader) {
+        this.path = path;
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.sha1 = sha1;
+        this.crc32 = crc32;
+        this.rawHeader = rawHeader;
+        this.header = RomHeader.parse(rawHeader);
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /** Hex SHA-1 of the whole file, the same key RomCache uses. */
+    public String getSha1() {
+        return sha1;
+    }
+
+    /** CRC32 of the file without its header. */
+    public long getCrc32() {
+        return crc32;
+    }
+
+    public RomHeader getHeader() {
+        return header;
+    }
+
+    byte[] getRawHeader() {
+        return rawHeader;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (mapper %d.%d, PRG %dK, CHR %dK, crc %08X)", path,
+                header.getMapperNumber(), header.getSubmapper(),
+                header.getPrgRomSize() / 1024, header.getChrRomSize() / 1024, crc32);
+    }
+}
@@ -0,0 +1,249 @@
+package com.sidpatchy.yolones.library;
+
+import com.sidpatchy.yolones.Hardware.RomHeader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only view of an index file written by {@link LibraryIndexer}. The file is memory-mapped,
+ * so opening it costs the same for ten ROMs or a hundred thousand; records are decoded on access.
+ * <p>
+ * Layout (big-endian):
+ * <pre>
+ *   header   magic "YNIX", version, record count, reserved      4 ints
+ *   records  SHA-1 (20), CRC32 (4), file size (8), mtime (8),
+ *            iNES header (16), path offset (4), path length (4)   64 bytes each
+ *   by hash  record numbers ordered by SHA-1, for binary search     4 bytes each
+ *   strings  UTF-8 paths, addressed from the end of the hash order
+ * </pre>
+ */
+public class LibraryIndex {
+    static final int MAGIC = 0x594E4958; // "YNIX"
+    static final int VERSION = 2;
+    static final int FILE_HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 64;
+
+    // Record field offsets
+    static final int SHA1 = 0;
+    static final int CRC32 = 20;
+    static final int FILE_SIZE = 24;
+    static final int LAST_MODIFIED = 32;
+    static final int ROM_HEADER = 40;
+    static final int PATH_OFFSET = 56;
+    static final int PATH_LENGTH = 60;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final MappedByteBuffer buffer;
+    private final int count;
+    private final int hashOrderStart;
+    private final int stringsStart;
+
+    private LibraryIndex(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.limit() < FILE_HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a library index, or written by another version");
+        }
+        this.count = buffer.getInt(8);
+        this.hashOrderStart = FILE_HEADER_SIZE + count * RECORD_SIZE;
+        this.stringsStart = hashOrderStart + count * 4;
+        if (stringsStart > buffer.limit()) {
+            throw new IOException("Truncated library index");
+        }
+    }
+
+    public static LibraryIndex open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            return new LibraryIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    private int record(int i) {
+        if (i < 0 || i >= count) throw new IndexOutOfBoundsException(i);
+        return FILE_HEADER_SIZE + i * RECORD_SIZE;
+    }
+
+    public String getPath(int i) {
+        int r = record(i);
+        byte[] bytes = new byte[buffer.getInt(r + PATH_LENGTH)];
+        buffer.get(stringsStart + buffer.getInt(r + PATH_OFFSET), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public long getCrc32(int i) {
+        return buffer.getInt(record(i) + CRC32) & 0xFFFFFFFFL;
+    }
+
+    public String getSha1(int i) {
+        int r = record(i);
+        char[] hex = new char[40];
+        for (int b = 0; b < 20; b++) {
+            int value = buffer.get(r + SHA1 + b);
+            hex[b * 2] = HEX[(value >> 4) & 0x0F];
+            hex[b * 2 + 1] = HEX[value & 0x0F];
+        }
+        return new String(hex);
+    }
+
+    // The 20 bytes of a hex SHA-1, or null if it isn't one
+    static byte[] sha1Bytes(String hex) {
+        if (hex == null || hex.length() != 40) return null;
+        byte[] bytes = new byte[20];
+        for (int b = 0; b < 20; b++) {
+            int high = Character.digit(hex.charAt(b * 2), 16);
+            int low = Character.digit(hex.charAt(b * 2 + 1), 16);
+            if (high < 0 || low < 0) return null;
+            bytes[b] = (byte) (high << 4 | low);
+        }
+        return bytes;
+    }
+
+    public RomHeader getHeader(int i) {
+        return RomHeader.parse(rawHeader(i));
+    }
+
+    private byte[] rawHeader(int i) {
+        byte[] header = new byte[RomHeader.HEADER_SIZE];
+        buffer.get(record(i) + ROM_HEADER, header);
+        return header;
+    }
+
+    public LibraryEntry getEntry(int i) {
+        int r = record(i);
+        return new LibraryEntry(getPath(i), buffer.getLong(r + FILE_SIZE), buffer.getLong(r + LAST_MODIFIED),
+                getSha1(i), getCrc32(i), rawHeader(i));
+    }
+
+    /** Every ROM using the given mapper (and any submapper). */
+    public List<LibraryEntry> findByMapper(int mapperNumber) {
+        List<LibraryEntry> found = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (getHeader(i).getMapperNumber() == mapperNumber) {
+                found.add(getEntry(i));
+            }
+        }
+        return found;
+    }
+
+    /** Every ROM whose PRG plus CHR ROM size is at most maxBytes. */
+    public List<LibraryEntry> findBySize(int maxBytes) {
+        List<LibraryEntry> found = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            RomHeader header = getHeader(i);
+            if ((long) header.getPrgRomSize() + header.getChrRomSize() <= maxBytes) {
+                found.add(getEntry(i));
+            }
+        }
+        return found;
+    }
+
+    /** The first ROM with this CRC32, or null. */
+    public LibraryEntry findByCrc32(long crc32) {
+        for (int i = 0; i < count; i++) {
+            if (getCrc32(i) == crc32) return getEntry(i);
+        }
+        return null;
+    }
+
+    /** The first ROM with this hex SHA-1, or null. Binary searches the hash-ordered section. */
+    public LibraryEntry findBySha1(String sha1) {
+        byte[] key = sha1Bytes(sha1);
+        if (key == null) return null;
+
+        // Lowest position in hash order whose SHA-1 is not below the key
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareSha1(buffer.getInt(hashOrderStart + mid * 4), key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low < count) {
+            int i = buffer.getInt(hashOrderStart + low * 4);
+            if (compareSha1(i, key) == 0) return getEntry(i);
+        }
+        return null;
+    }
+
+    // Record i's SHA-1 against key, as unsigned bytes
+    private int compareSha1(int i, byte[] key) {
+        int r = record(i) + SHA1;
+        for (int b = 0; b < 20; b++) {
+            int difference = (buffer.get(r + b) & 0xFF) - (key[b] & 0xFF);
+            if (difference != 0) return difference;
+        }
+        return 0;
+    }
+
+    // Entries by path, for re-indexing without re-reading unchanged files
+    Map<String, LibraryEntry> entriesByPath() {
+        Map<String, LibraryEntry> entries = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            entries.put(getPath(i), getEntry(i));
+        }
+        return entries;
+    }
+
+    /**
+     * Encode entries in the index format.
+     */
+    static ByteBuffer encode(List<LibraryEntry> entries) {
+        byte[][] paths = new byte[entries.size()][];
+        byte[][] hashes = new byte[entries.size()][];
+        int stringsSize = 0;
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = entries.get(i).getPath().getBytes(StandardCharsets.UTF_8);
+            stringsSize += paths[i].length;
+            hashes[i] = sha1Bytes(entries.get(i).getSha1());
+            if (hashes[i] == null) {
+                throw new IllegalArgumentException("Not a SHA-1: " + entries.get(i).getSha1());
+            }
+        }
+        // Stable, so of equal hashes the earlier record is found first
+        Integer[] hashOrder = new Integer[entries.size()];
+        Arrays.setAll(hashOrder, i -> i);
+        Arrays.sort(hashOrder, (a, b) -> Arrays.compareUnsigned(hashes[a], hashes[b]));
+
+        ByteBuffer out = ByteBuffer.allocate(FILE_HEADER_SIZE + entries.size() * (RECORD_SIZE + 4) + stringsSize);
+        out.putInt(MAGIC).putInt(VERSION).putInt(entries.size()).putInt(0);
+
+        int pathOffset = 0;
+        for (int i = 0; i < paths.length; i++) {
+            LibraryEntry entry = entries.get(i);
+            out.put(hashes[i]);
+            out.putInt((int) entry.getCrc32());
+            out.putLong(entry.getFileSize());
+            out.putLong(entry.getLastModified());
+            out.put(entry.getRawHeader());
+            out.putInt(pathOffset);
+            out.putInt(paths[i].length);
+            pathOffset += paths[i].length;
+        }
+        for (int i : hashOrder) {
+            out.putInt(i);
+        }
+        for (byte[] path : paths) {
+            out.put(path);
+        }
+        return out.flip();
+    }
+}
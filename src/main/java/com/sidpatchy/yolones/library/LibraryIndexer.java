@@ -0,0 +1,138 @@
+package com.sidpatchy.yolones.library;
+
+import com.sidpatchy.yolones.Hardware.RomCache;
+import com.sidpatchy.yolones.Hardware.RomHeader;
+import com.sidpatchy.yolones.Hardware.RomImage;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Scans directories for .nes files in parallel and writes a {@link LibraryIndex}.
+ * Files whose path, size and modification time match the previous index are not read again.
+ * <p>
+ * Usage: {@code LibraryIndexer <index file> <rom directory>...}
+ */
+public class LibraryIndexer {
+    private static final Logger logger = LogManager.getLogger(LibraryIndexer.class);
+
+    private final ForkJoinPool pool;
+
+    public LibraryIndexer() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public LibraryIndexer(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Find and describe every ROM under the given directories, sorted by path.
+     *
+     * @param previous an earlier index of the same library, or null to read every file
+     */
+    public List<LibraryEntry> scan(List<Path> roots, LibraryIndex previous) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (Path root : roots) {
+            try (Stream<Path> walk = Files.walk(root)) {
+                walk.filter(Files::isRegularFile)
+                        .filter(p -> p.getFileName().toString().toLowerCase().endsWith(".nes"))
+                        .forEach(files::add);
+            }
+        }
+
+        Map<String, LibraryEntry> known = previous == null ? Map.of() : previous.entriesByPath();
+        // A parallel stream started from inside a pool task runs on that pool
+        List<LibraryEntry> entries = pool.submit(() -> files.parallelStream()
+                .map(file -> describe(file, known))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList())).join();
+        entries.sort(Comparator.comparing(LibraryEntry::getPath));
+        return entries;
+    }
+
+    private static LibraryEntry describe(Path file, Map<String, LibraryEntry> known) {
+        String path = file.toAbsolutePath().toString();
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            long size = attributes.size();
+            long modified = attributes.lastModifiedTime().toMillis();
+
+            LibraryEntry old = known.get(path);
+            if (old != null && old.getFileSize() == size && old.getLastModified() == modified) {
+                return old;
+            }
+
+            byte[] data = Files.readAllBytes(file);
+            byte[] rawHeader = Arrays.copyOf(data, RomHeader.HEADER_SIZE);
+            RomHeader.parse(rawHeader); // Reject non-iNES files before hashing them
+            return new LibraryEntry(path, size, modified, RomCache.sha1(data), RomImage.crc32(data), rawHeader);
+        } catch (IllegalArgumentException e) {
+            logger.debug("Skipping {}: {}", path, e.getMessage());
+        } catch (IOException e) {
+            logger.warn("Could not read {}", path, e);
+        }
+        return null;
+    }
+
+    /**
+     * Write entries to an index file, replacing it atomically.
+     */
+    public static void write(Path indexFile, List<LibraryEntry> entries) throws IOException {
+        Path temp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        ByteBuffer encoded = LibraryIndex.encode(entries);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (encoded.hasRemaining()) {
+                channel.write(encoded);
+            }
+        }
+        Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: LibraryIndexer <index file> <rom directory>...");
+            System.exit(1);
+        }
+
+        Path indexFile = Paths.get(args[0]);
+        List<Path> roots = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            roots.add(Paths.get(args[i]));
+        }
+
+        LibraryIndex previous = null;
+        if (Files.exists(indexFile)) {
+            try {
+                previous = LibraryIndex.open(indexFile);
+            } catch (IOException e) {
+                logger.warn("Ignoring unreadable index {}", indexFile, e);
+            }
+        }
+
+        long start = System.nanoTime();
+        List<LibraryEntry> entries = new LibraryIndexer().scan(roots, previous);
+        write(indexFile, entries);
+        logger.info("Indexed {} ROMs into {} in {} ms", entries.size(), indexFile,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+}
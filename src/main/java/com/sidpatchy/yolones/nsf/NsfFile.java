@@ -0,0 +1,169 @@
+package com.sidpatchy.yolones.nsf;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * A parsed NSF (NES Sound Format) file: the 128 byte header and the program data after it.
+ * Immutable, so one instance can back any number of players at once.
+ */
+public final class NsfFile {
+    public static final int HEADER_SIZE = 0x80;
+    public static final int DEFAULT_PLAY_SPEED_US = 16639; // 60.1 Hz, the NTSC frame rate
+
+    // Expansion sound chips, bits of header byte $7B
+    public static final int CHIP_VRC6 = 0x01;
+    public static final int CHIP_VRC7 = 0x02;
+    public static final int CHIP_FDS = 0x04;
+    public static final int CHIP_MMC5 = 0x08;
+    public static final int CHIP_N163 = 0x10;
+    public static final int CHIP_SUNSOFT_5B = 0x20;
+
+    private final int version;
+    private final int songCount;
+    private final int startingSong;    // 0-based
+    private final int loadAddress;
+    private final int initAddress;
+    private final int playAddress;
+    private final String title;
+    private final String artist;
+    private final String copyright;
+    private final int ntscSpeed;       // Microseconds between PLAY calls
+    private final int palSpeed;
+    private final int[] initialBanks;  // 4KB bank for each of $8000-$FFFF, null if not bankswitched
+    private final boolean palOnly;
+    private final int expansionChips;
+    private final byte[] data;
+
+    private NsfFile(byte[] file) {
+        version = file[0x05] & 0xFF;
+        songCount = file[0x06] & 0xFF;
+        startingSong = Math.max(1, file[0x07] & 0xFF) - 1;
+        loadAddress = word(file, 0x08);
+        initAddress = word(file, 0x0A);
+        playAddress = word(file, 0x0C);
+        title = string(file, 0x0E);
+        artist = string(file, 0x2E);
+        copyright = string(file, 0x4E);
+        int ntsc = word(file, 0x6E);
+        ntscSpeed = ntsc != 0 ? ntsc : DEFAULT_PLAY_SPEED_US;
+        int pal = word(file, 0x78);
+        palSpeed = pal != 0 ? pal : 19997;
+        palOnly = (file[0x7A] & 0x03) == 0x01;
+        expansionChips = file[0x7B] & 0xFF;
+
+        int[] banks = new int[8];
+        boolean banked = false;
+        for (int i = 0; i < 8; i++) {
+            banks[i] = file[0x70 + i] & 0xFF;
+            banked |= banks[i] != 0;
+        }
+        initialBanks = banked ? banks : null;
+        data = Arrays.copyOfRange(file, HEADER_SIZE, file.length);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the data is not an NSF file
+     */
+    public static NsfFile parse(byte[] file) {
+        if (file.length < HEADER_SIZE || file[0] != 'N' || file[1] != 'E' || file[2] != 'S'
+                || file[3] != 'M' || file[4] != 0x1A) {
+            throw new IllegalArgumentException("Not an NSF file");
+        }
+        NsfFile nsf = new NsfFile(file);
+        if (nsf.loadAddress < 0x8000 && nsf.initialBanks == null) {
+            throw new IllegalArgumentException(String.format("Load address $%04X is below $8000", nsf.loadAddress));
+        }
+        return nsf;
+    }
+
+    public static NsfFile load(Path path) throws IOException {
+        return parse(Files.readAllBytes(path));
+    }
+
+    private static int word(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8);
+    }
+
+    // Header strings are NUL-padded to 32 bytes
+    private static String string(byte[] data, int offset) {
+        int end = offset;
+        while (end < offset + 32 && data[end] != 0) end++;
+        return new String(data, offset, end - offset, StandardCharsets.ISO_8859_1).trim();
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getSongCount() {
+        return songCount;
+    }
+
+    /** Song to play by default, 0-based. */
+    public int getStartingSong() {
+        return startingSong;
+    }
+
+    public int getLoadAddress() {
+        return loadAddress;
+    }
+
+    public int getInitAddress() {
+        return initAddress;
+    }
+
+    public int getPlayAddress() {
+        return playAddress;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getArtist() {
+        return artist;
+    }
+
+    public String getCopyright() {
+        return copyright;
+    }
+
+    public int getNtscSpeed() {
+        return ntscSpeed;
+    }
+
+    public int getPalSpeed() {
+        return palSpeed;
+    }
+
+    public boolean isPalOnly() {
+        return palOnly;
+    }
+
+    public boolean isBankswitched() {
+        return initialBanks != null;
+    }
+
+    /** Initial 4KB bank of window i ($8000 + i * $1000). Only meaningful when bankswitched. */
+    public int getInitialBank(int window) {
+        return initialBanks != null ? initialBanks[window] : window;
+    }
+
+    public int getExpansionChips() {
+        return expansionChips;
+    }
+
+    /** Program data following the header. Do not modify. */
+    byte[] getData() {
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s - %s (%d songs)", title, artist, songCount);
+    }
+}
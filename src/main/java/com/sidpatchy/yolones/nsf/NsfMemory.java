@@ -0,0 +1,85 @@
+package com.sidpatchy.yolones.nsf;
+
+import com.sidpatchy.yolones.Hardware.APU;
+import com.sidpatchy.yolones.Hardware.CPUMemory;
+
+import java.util.Arrays;
+
+/**
+ * CPU address space of an NSF player: internal RAM and the APU as on the console, 8KB of work
+ * RAM at $6000, and the NSF program at $8000-$FFFF, in 4KB banks selected through $5FF8-$5FFF
+ * when the file is bankswitched. There is no PPU; its registers read as 0 and ignore writes.
+ */
+public class NsfMemory extends CPUMemory {
+    /** Address INIT and PLAY return to. Nothing is mapped here, the player stops before running it. */
+    public static final int RETURN_ADDRESS = 0x5FF0;
+
+    private final byte[] rom;             // Program data padded to whole 4KB banks
+    private final int bankCount;
+    private final int[] bankOffsets = new int[8];
+    private final byte[] workRam = new byte[0x2000];
+    private final boolean bankswitched;
+
+    public NsfMemory(NsfFile nsf, APU apu) {
+        super(null, null, apu);
+        byte[] data = nsf.getData();
+        this.bankswitched = nsf.isBankswitched();
+        if (bankswitched) {
+            // Data starts at the load address' offset within its 4KB bank
+            int padding = nsf.getLoadAddress() & 0x0FFF;
+            int size = (padding + data.length + 0x0FFF) & ~0x0FFF;
+            rom = new byte[size];
+            System.arraycopy(data, 0, rom, padding, data.length);
+        } else {
+            rom = new byte[0x8000];
+            int start = nsf.getLoadAddress() - 0x8000;
+            System.arraycopy(data, 0, rom, start, Math.min(data.length, rom.length - start));
+        }
+        bankCount = rom.length >> 12;
+        reset(nsf);
+    }
+
+    /** Restore the power-on state before INIT: clear RAM and select the initial banks. */
+    public void reset(NsfFile nsf) {
+        for (int address = 0; address < 0x0800; address++) {
+            super.write(address, 0);
+        }
+        Arrays.fill(workRam, (byte) 0);
+        for (int i = 0; i < 8; i++) {
+            selectBank(i, nsf.getInitialBank(i));
+        }
+    }
+
+    private void selectBank(int window, int bank) {
+        bankOffsets[window] = (bank % bankCount) << 12;
+    }
+
+    @Override
+    public int read(int address) {
+        address &= 0xFFFF;
+        if (address >= 0x8000) {
+            return rom[bankOffsets[(address >> 12) & 7] | (address & 0x0FFF)] & 0xFF;
+        } else if (address >= 0x6000) {
+            return workRam[address - 0x6000] & 0xFF;
+        } else if (address < 0x2000 || (address >= 0x4000 && address < 0x4020)) {
+            return super.read(address);
+        }
+        return 0; // PPU registers and unmapped space
+    }
+
+    @Override
+    public void write(int address, int value) {
+        address &= 0xFFFF;
+        if (address >= 0x8000) {
+            return; // ROM
+        } else if (address >= 0x6000) {
+            workRam[address - 0x6000] = (byte) value;
+        } else if (address >= 0x5FF8) {
+            if (bankswitched) {
+                selectBank(address - 0x5FF8, value & 0xFF);
+            }
+        } else if (address < 0x2000 || (address >= 0x4000 && address < 0x4020 && address != 0x4014)) {
+            super.write(address, value); // RAM, APU and controller; no OAM DMA without a PPU
+        }
+    }
+}
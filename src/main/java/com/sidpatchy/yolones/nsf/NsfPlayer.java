@@ -0,0 +1,151 @@
+package com.sidpatchy.yolones.nsf;
+
+import com.sidpatchy.yolones.AudioSink;
+import com.sidpatchy.yolones.Emulator;
+import com.sidpatchy.yolones.Hardware.APU;
+import com.sidpatchy.yolones.Hardware.BlipBuffer;
+import com.sidpatchy.yolones.Hardware.CPU6502;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Plays one song of an NSF file on a CPU and APU, without a PPU. INIT runs once when the player
+ * is created; after that PLAY is called at the rate the file asks for and the CPU idles between
+ * calls, which the APU skips over in bulk.
+ * <p>
+ * Only the 2A03's own channels are emulated, expansion chips are silent. PAL-only files play at
+ * their PAL call rate on the NTSC clock, so their pitch is slightly high.
+ */
+public class NsfPlayer {
+    private static final Logger logger = LogManager.getLogger(NsfPlayer.class);
+    private static final int INIT_CYCLE_LIMIT = (int) Emulator.CPU_FREQ; // INIT gets one second
+
+    private final NsfFile nsf;
+    private final int song;
+    private final APU apu;
+    private final NsfMemory memory;
+    private final CPU6502 cpu;
+    private final double cyclesPerPlay;
+
+    private AudioSink audioSink;
+    private final float[] audioSamples = new float[4096];
+    private double cycleBudget = 0;   // Cycles owed to the current period, carries fractions and overruns
+    private boolean inPlay = false;   // PLAY has not returned yet
+    private long frames = 0;
+
+    /**
+     * @param song 0-based song number
+     */
+    public NsfPlayer(NsfFile nsf, int song) {
+        if (song < 0 || song >= nsf.getSongCount()) {
+            throw new IllegalArgumentException("Song " + song + " out of range, file has " + nsf.getSongCount());
+        }
+        if (nsf.getExpansionChips() != 0) {
+            logger.debug("{} uses expansion chips {}, only 2A03 channels will play",
+                    nsf.getTitle(), Integer.toBinaryString(nsf.getExpansionChips()));
+        }
+        this.nsf = nsf;
+        this.song = song;
+        this.apu = new APU();
+        this.memory = new NsfMemory(nsf, apu);
+        this.cpu = new CPU6502(memory);
+        int speed = nsf.isPalOnly() ? nsf.getPalSpeed() : nsf.getNtscSpeed();
+        this.cyclesPerPlay = Emulator.CPU_FREQ * speed / 1_000_000.0;
+        init();
+    }
+
+    private void init() {
+        // Silence the channels and stop frame IRQs, as players do before INIT
+        for (int address = 0x4000; address <= 0x4013; address++) {
+            memory.write(address, 0);
+        }
+        memory.write(0x4015, 0x00);
+        memory.write(0x4015, 0x0F);
+        memory.write(0x4017, 0x40);
+
+        cpu.reset();
+        cpu.setRegisters(song, nsf.isPalOnly() ? 1 : 0, 0);
+        cpu.callSubroutine(nsf.getInitAddress(), NsfMemory.RETURN_ADDRESS);
+        int cycles = 0;
+        while (cpu.getPC() != NsfMemory.RETURN_ADDRESS && cycles < INIT_CYCLE_LIMIT) {
+            int step = cpu.step();
+            apu.run(step);
+            cycles += step;
+        }
+        if (cpu.getPC() != NsfMemory.RETURN_ADDRESS) {
+            logger.warn("INIT of {} song {} did not return within a second", nsf.getTitle(), song + 1);
+        }
+    }
+
+    /**
+     * Set the audio output. Without one the APU still runs but no samples are produced.
+     */
+    public void setAudioSink(AudioSink audioSink) {
+        this.audioSink = audioSink;
+        apu.setBlipBuffer(audioSink != null ? new BlipBuffer(Emulator.CPU_FREQ, audioSink.getSampleRate()) : null);
+    }
+
+    /**
+     * Run one PLAY period: call PLAY (unless the last call is still running), let the CPU idle
+     * until the next call is due and hand the period's audio to the sink.
+     */
+    public void runFrame() {
+        cycleBudget += cyclesPerPlay;
+        int period = (int) cycleBudget;
+
+        if (!inPlay) {
+            cpu.callSubroutine(nsf.getPlayAddress(), NsfMemory.RETURN_ADDRESS);
+            inPlay = true;
+        }
+        int cycles = 0;
+        while (inPlay && cycles < period) {
+            int step = cpu.step();
+            apu.run(step);
+            cycles += step;
+            inPlay = cpu.getPC() != NsfMemory.RETURN_ADDRESS;
+        }
+        if (cycles < period) {
+            apu.run(period - cycles); // The CPU waits for the next call
+            cycles = period;
+        }
+        cycleBudget -= cycles;
+        frames++;
+
+        apu.endAudioFrame();
+        if (audioSink != null) {
+            BlipBuffer blip = apu.getBlipBuffer();
+            int count;
+            while ((count = blip.readSamples(audioSamples)) > 0) {
+                audioSink.addSamples(audioSamples, count);
+            }
+            audioSink.endFrame();
+        }
+    }
+
+    /**
+     * Run PLAY periods until the given length of audio has been produced.
+     */
+    public void render(double seconds) {
+        long target = frames + (long) Math.ceil(seconds * Emulator.CPU_FREQ / cyclesPerPlay);
+        while (frames < target) {
+            runFrame();
+        }
+    }
+
+    /** Seconds of audio produced so far. */
+    public double getPosition() {
+        return frames * cyclesPerPlay / Emulator.CPU_FREQ;
+    }
+
+    public NsfFile getNsf() {
+        return nsf;
+    }
+
+    public int getSong() {
+        return song;
+    }
+
+    public APU getAPU() {
+        return apu;
+    }
+}
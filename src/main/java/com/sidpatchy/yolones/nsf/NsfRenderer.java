@@ -0,0 +1,99 @@
+package com.sidpatchy.yolones.nsf;
+
+import com.sidpatchy.yolones.FileAudioSink;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Renders the songs of an NSF file to WAV files, one song per core at a time. Each song gets its
+ * own player, so nothing is shared between threads but the immutable {@link NsfFile}.
+ * <p>
+ * Usage: {@code NsfRenderer <file.nsf> <output directory> [seconds per song] [sample rate]}
+ */
+public class NsfRenderer {
+    private static final Logger logger = LogManager.getLogger(NsfRenderer.class);
+
+    private final ForkJoinPool pool;
+
+    public NsfRenderer() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public NsfRenderer(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Render one song to a file, WAV or raw by extension.
+     */
+    public static void renderSong(NsfFile nsf, int song, Path file, double seconds, int sampleRate) throws IOException {
+        FileAudioSink sink = new FileAudioSink(file, sampleRate);
+        try {
+            NsfPlayer player = new NsfPlayer(nsf, song);
+            player.setAudioSink(sink);
+            player.render(seconds);
+        } finally {
+            sink.close();
+        }
+    }
+
+    /**
+     * Render the given songs (0-based) in parallel, into files named after the NSF file and the
+     * 1-based song number.
+     *
+     * @return the files written, in song order
+     */
+    public List<Path> renderSongs(NsfFile nsf, List<Integer> songs, Path directory, String baseName,
+                                  double seconds, int sampleRate) throws IOException {
+        Files.createDirectories(directory);
+        // A parallel stream started from inside a pool task runs on that pool
+        return pool.submit(() -> songs.parallelStream()
+                .map(song -> {
+                    Path file = directory.resolve(String.format("%s-%02d.wav", baseName, song + 1));
+                    long start = System.nanoTime();
+                    try {
+                        renderSong(nsf, song, file, seconds, sampleRate);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    double elapsed = (System.nanoTime() - start) / 1e9;
+                    logger.debug("Song {} rendered in {} s ({}x real time)", song + 1,
+                            String.format("%.2f", elapsed), String.format("%.0f", seconds / elapsed));
+                    return file;
+                })
+                .collect(Collectors.toList())).join();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: NsfRenderer <file.nsf> <output directory> [seconds per song] [sample rate]");
+            System.exit(1);
+        }
+
+        Path nsfPath = Paths.get(args[0]);
+        Path directory = Paths.get(args[1]);
+        double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 180;
+        int sampleRate = args.length > 3 ? Integer.parseInt(args[3]) : 48000;
+
+        NsfFile nsf = NsfFile.load(nsfPath);
+        String baseName = nsfPath.getFileName().toString().replaceFirst("(?i)\\.nsf$", "");
+        List<Integer> songs = IntStream.range(0, nsf.getSongCount()).boxed().collect(Collectors.toList());
+
+        long start = System.nanoTime();
+        List<Path> files = new NsfRenderer().renderSongs(nsf, songs, directory, baseName,
+                seconds, sampleRate);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        logger.info("Rendered {} songs of {} to {} in {} s ({}x real time overall)", files.size(), nsf,
+                directory, String.format("%.2f", elapsed), String.format("%.0f", files.size() * seconds / elapsed));
+    }
+}
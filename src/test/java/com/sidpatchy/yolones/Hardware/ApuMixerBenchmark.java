@@ -0,0 +1,76 @@
+package com.sidpatchy.yolones.Hardware;
+
+import java.util.Random;
+
+/**
+ * Measures {@link APU#getSample()}, which mixes the four channels through the nonlinear mixer
+ * tables, in nanoseconds per call. Run with {@code gradle mixerBenchmark}, or directly with an
+ * optional {@code [milliseconds per measurement]} argument.
+ * <p>
+ * Samples are read round-robin from APUs stepped to different points with all four channels
+ * sounding, so the calls can't be hoisted out of the loop and every mixer input varies.
+ */
+public final class ApuMixerBenchmark {
+    private static final int STATES = 64;
+    private static float sink; // Keeps the samples from being optimized away
+
+    private ApuMixerBenchmark() {
+    }
+
+    // Both pulses, the triangle and the noise channel playing with halted length counters
+    static APU[] sounding() {
+        int[][] writes = {
+                {0x4015, 0x0F},
+                {0x4000, 0xBF}, {0x4002, 0xFD}, {0x4003, 0x00}, // Pulse 1: 50% duty, volume 15
+                {0x4004, 0x7A}, {0x4006, 0x80}, {0x4007, 0x01}, // Pulse 2: 25% duty, volume 10
+                {0x4008, 0xFF}, {0x400A, 0x40}, {0x400B, 0x01}, // Triangle, linear counter held
+                {0x400C, 0x3C}, {0x400E, 0x03}, {0x400F, 0x00}, // Noise: volume 12
+        };
+        Random random = new Random(1);
+        APU[] apus = new APU[STATES];
+        for (int i = 0; i < STATES; i++) {
+            APU apu = new APU();
+            for (int[] write : writes) {
+                apu.writeRegister(write[0], write[1]);
+            }
+            // Past the first quarter frame, which loads the triangle's linear counter
+            int cycles = 3729 + random.nextInt(30_000);
+            for (int c = 0; c < cycles; c++) {
+                apu.tick();
+            }
+            apus[i] = apu;
+        }
+        return apus;
+    }
+
+    static double nanosPerSample(APU[] apus, long nanos) {
+        float sum = 0;
+        long samples = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (int i = 0; i < 1024; i++) {
+                for (APU apu : apus) {
+                    sum += apu.getSample();
+                }
+            }
+            samples += 1024L * apus.length;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < nanos);
+        sink += sum;
+        return (double) elapsed / samples;
+    }
+
+    public static void main(String[] args) {
+        long nanos = (args.length > 0 ? Long.parseLong(args[0]) : 1000) * 1_000_000L;
+        APU[] apus = sounding();
+
+        nanosPerSample(apus, nanos / 2); // Warm up
+        for (int run = 1; run <= 3; run++) {
+            System.out.printf("getSample(): %.2f ns%n", nanosPerSample(apus, nanos));
+        }
+        if (sink == 42) {
+            System.out.println(); // Unlikely; only here so sink is read
+        }
+    }
+}
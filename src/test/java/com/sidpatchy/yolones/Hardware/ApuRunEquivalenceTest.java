@@ -0,0 +1,93 @@
+package com.sidpatchy.yolones.Hardware;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Random;
+import java.util.Set;
+
+import static com.sidpatchy.yolones.Hardware.StateAssertions.assertSameState;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * APU.run(n) must leave the APU exactly as n calls to tick() would, whether it is stepping to
+ * frame-sequencer events only or also stopping at output changes for a blip buffer. With a blip
+ * buffer the samples must match as well.
+ */
+class ApuRunEquivalenceTest {
+    private static final int[] REGISTERS = {
+            0x4000, 0x4001, 0x4002, 0x4003, 0x4004, 0x4005, 0x4006, 0x4007,
+            0x4008, 0x400A, 0x400B, 0x400C, 0x400E, 0x400F, 0x4015, 0x4017};
+    private static final int ITERATIONS = 20_000;
+    private static final double CPU_CLOCK = 1789773.0;
+
+    private static void compare(APU reference, APU bulk, String when) {
+        assertSameState(reference, bulk, Set.of(), when);
+        assertEquals(Float.floatToIntBits(reference.getSample()), Float.floatToIntBits(bulk.getSample()),
+                "getSample() " + when);
+        assertEquals(reference.hasIRQ(), bulk.hasIRQ(), "IRQ " + when);
+    }
+
+    private static void runRandomTraffic(long seed, boolean bandLimited) {
+        Random random = new Random(seed);
+        APU reference = new APU();
+        APU bulk = new APU();
+        BlipBuffer referenceBlip = null;
+        BlipBuffer bulkBlip = null;
+        float[] referenceSamples = new float[4096];
+        float[] bulkSamples = new float[4096];
+        if (bandLimited) {
+            referenceBlip = new BlipBuffer(CPU_CLOCK, 44100);
+            bulkBlip = new BlipBuffer(CPU_CLOCK, 44100);
+            reference.setBlipBuffer(referenceBlip);
+            bulk.setBlipBuffer(bulkBlip);
+        }
+
+        int frameCycles = 0;
+        int frames = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            if (random.nextInt(4) == 0) {
+                int address = REGISTERS[random.nextInt(REGISTERS.length)];
+                int value = random.nextInt(256);
+                if (address == 0x4015) value |= 0x0F; // Mostly keep the channels enabled
+                reference.writeRegister(address, value);
+                bulk.writeRegister(address, value);
+            }
+            if (random.nextInt(50) == 0) {
+                assertEquals(reference.readRegister(0x4015), bulk.readRegister(0x4015), "$4015 at iteration " + i);
+            }
+
+            // Mostly instruction-sized steps, sometimes long stretches across several sequencer steps
+            int cycles = random.nextInt(3) == 0 ? random.nextInt(20_000) : random.nextInt(40) + 1;
+            for (int c = 0; c < cycles; c++) {
+                reference.tick();
+            }
+            bulk.run(cycles);
+            compare(reference, bulk, "after run(" + cycles + ") at iteration " + i);
+
+            frameCycles += cycles;
+            if (bandLimited && frameCycles >= 29780) {
+                reference.endAudioFrame();
+                bulk.endAudioFrame();
+                int n = referenceBlip.readSamples(referenceSamples);
+                assertEquals(n, bulkBlip.readSamples(bulkSamples), "Sample count in frame " + frames);
+                assertArrayEquals(referenceSamples, bulkSamples, "Samples in frame " + frames);
+                frameCycles = 0;
+                frames++;
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 3})
+    void runMatchesTick(int seed) {
+        runRandomTraffic(seed, false);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 3})
+    void bandLimitedRunMatchesTick(int seed) {
+        runRandomTraffic(seed, true);
+    }
+}
@@ -0,0 +1,150 @@
+package com.sidpatchy.yolones.Hardware.Mappers;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Measures PRG read, CHR read and register write throughput of every registered mapper, in
+ * millions of accesses per second, and a mix of one register write followed by 16 PRG and 16 CHR
+ * reads, close to a game that switches banks a few times per scanline. Run with {@code gradle mapperBenchmark}, or directly with
+ * {@code [milliseconds per measurement] [mapper number]}.
+ * <p>
+ * Each mapper is measured in its own JVM. The emulator only ever loads one mapper class, so its
+ * read calls stay monomorphic; measuring several in one JVM would slow every mapper after the first.
+ */
+public final class MapperBenchmark {
+    private static int sink; // Keeps the reads from being optimized away
+
+    private MapperBenchmark() {
+    }
+
+    private static Mapper create(MapperProvider provider) {
+        return provider.create(MapperConformanceTest.patternedRom(MapperConformanceTest.PRG_SIZE, 0x2000),
+                MapperConformanceTest.patternedRom(MapperConformanceTest.CHR_SIZE, 0x0400), false,
+                MapperConformanceTest.header(provider.getMapperNumber(), 0, false));
+    }
+
+    // Random register writes across $8000-$FFFF, the same sequence for every mapper
+    private static int[] registerAddresses() {
+        Random random = new Random(1);
+        int[] addresses = new int[4096];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = 0x8000 + random.nextInt(0x8000);
+        }
+        return addresses;
+    }
+
+    static double prgReads(Mapper mapper, long nanos) {
+        int sum = 0;
+        long reads = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (int address = 0x8000; address < 0x10000; address++) {
+                sum += mapper.read(address);
+            }
+            reads += 0x8000;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < nanos);
+        sink += sum;
+        return reads * 1e9 / elapsed;
+    }
+
+    static double chrReads(Mapper mapper, long nanos) {
+        int sum = 0;
+        long reads = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (int address = 0; address < 0x2000; address++) {
+                sum += mapper.chrRead(address);
+            }
+            reads += 0x2000;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < nanos);
+        sink += sum;
+        return reads * 1e9 / elapsed;
+    }
+
+    static double writes(Mapper mapper, int[] addresses, long nanos) {
+        long writes = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (int i = 0; i < addresses.length; i++) {
+                mapper.write(addresses[i], i);
+            }
+            writes += addresses.length;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < nanos);
+        return writes * 1e9 / elapsed;
+    }
+
+    // Accesses per second, counting the write and the 32 reads of each step
+    static double mixed(Mapper mapper, int[] addresses, long nanos) {
+        int sum = 0;
+        long accesses = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (int i = 0; i < addresses.length; i++) {
+                mapper.write(addresses[i], i);
+                int prg = 0x8000 | (i * 0x0F1 & 0x7FF0);
+                int chr = i * 0x2B & 0x1FF0;
+                for (int j = 0; j < 16; j++) {
+                    sum += mapper.read(prg + j) + mapper.chrRead(chr + j);
+                }
+            }
+            accesses += addresses.length * 33L;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < nanos);
+        sink += sum;
+        return accesses * 1e9 / elapsed;
+    }
+
+    private static void report(MapperProvider provider, long nanos) {
+        Mapper mapper = create(provider);
+        int[] addresses = registerAddresses();
+
+        // Warm up, then measure
+        prgReads(mapper, nanos / 2);
+        chrReads(mapper, nanos / 2);
+        writes(mapper, addresses, nanos / 2);
+        mixed(mapper, addresses, nanos / 2);
+        double prg = prgReads(mapper, nanos);
+        double chr = chrReads(mapper, nanos);
+        double write = writes(mapper, addresses, nanos);
+        double mix = mixed(mapper, addresses, nanos);
+
+        System.out.printf("%-24s %10.1f %10.1f %10.1f %10.1f%n", provider.getMapperNumber() + " " + provider.getName(),
+                prg / 1e6, chr / 1e6, write / 1e6, mix / 1e6);
+        if (sink == 42) {
+            System.out.println(); // Unlikely; only here so sink is read
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String millis = args.length > 0 ? args[0] : "500";
+        if (args.length > 1) {
+            int number = Integer.parseInt(args[1]);
+            MapperProvider provider = MapperRegistry.find(number, 0);
+            if (provider == null) {
+                throw new IllegalArgumentException("Mapper " + number + " is not registered");
+            }
+            report(provider, Long.parseLong(millis) * 1_000_000L);
+            return;
+        }
+
+        String java = ProcessHandle.current().info().command().orElse("java");
+        System.out.printf("%-24s %10s %10s %10s %10s%n", "mapper", "PRG M/s", "CHR M/s", "write M/s", "mixed M/s");
+        for (MapperProvider provider : MapperRegistry.getProviders()) {
+            Process fork = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    MapperBenchmark.class.getName(), millis, String.valueOf(provider.getMapperNumber()))
+                    .inheritIO()
+                    .start();
+            if (fork.waitFor() != 0) {
+                throw new IllegalStateException("Benchmark of mapper " + provider.getMapperNumber() + " failed");
+            }
+        }
+    }
+}
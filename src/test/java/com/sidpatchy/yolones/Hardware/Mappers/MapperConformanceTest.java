@@ -0,0 +1,339 @@
+package com.sidpatchy.yolones.Hardware.Mappers;
+
+import com.sidpatchy.yolones.Hardware.RomHeader;
+import org.junit.jupiter.api.Named;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Checks every registered mapper against synthetic ROMs.
+ * <p>
+ * Every 8KB PRG and 1KB CHR bank of the test ROM carries its own byte pattern, so after any
+ * sequence of register writes the test can tell which bank each window shows and whether it is a
+ * whole, aligned bank. The parameterized tests hold for every provider; the per-board tests check
+ * that each register write selects the bank the board documents.
+ */
+class MapperConformanceTest {
+    static final int PRG_SIZE = 512 * 1024;
+    static final int CHR_SIZE = 256 * 1024;
+    private static final int RANDOM_WRITES = 2000;
+
+    static Stream<Arguments> providers() {
+        return MapperRegistry.getProviders().stream()
+                .map(p -> Arguments.of(Named.of(p.getMapperNumber() + " " + p.getName(), p)));
+    }
+
+    // Byte o of 8KB PRG bank (or 1KB CHR bank) b. Byte 0 identifies the bank: 7 * 183 = 1 mod 256.
+    private static int pattern(int bank, int offset) {
+        return (bank * 7 + offset * 13) & 0xFF;
+    }
+
+    private static int bankAt(int firstByte) {
+        return (firstByte * 183) & 0xFF;
+    }
+
+    static byte[] patternedRom(int size, int bankSize) {
+        byte[] rom = new byte[size];
+        for (int i = 0; i < size; i++) {
+            rom[i] = (byte) pattern(i / bankSize, i % bankSize);
+        }
+        return rom;
+    }
+
+    static RomHeader header(int mapperNumber, int submapper, boolean chrRAM) {
+        return header(mapperNumber, submapper, chrRAM, PRG_SIZE);
+    }
+
+    private static RomHeader header(int mapperNumber, int submapper, boolean chrRAM, int prgSize) {
+        byte[] data = new byte[RomHeader.HEADER_SIZE];
+        data[0] = 'N';
+        data[1] = 'E';
+        data[2] = 'S';
+        data[3] = 0x1A;
+        data[4] = (byte) (prgSize / 16384);
+        data[5] = (byte) (chrRAM ? 0 : CHR_SIZE / 8192);
+        data[6] = (byte) ((mapperNumber & 0x0F) << 4);
+        data[7] = (byte) ((mapperNumber & 0xF0) | 0x08); // NES 2.0
+        data[8] = (byte) ((submapper << 4) | ((mapperNumber >> 8) & 0x0F));
+        data[10] = 0x07; // 8KB PRG-RAM
+        data[11] = (byte) (chrRAM ? 0x07 : 0);
+        return RomHeader.parse(data);
+    }
+
+    private static Mapper createPatterned(MapperProvider provider) {
+        int[] submappers = provider.getSubmappers();
+        int submapper = submappers.length > 0 ? submappers[0] : 0;
+        return provider.create(patternedRom(PRG_SIZE, 0x2000), patternedRom(CHR_SIZE, 0x0400), false,
+                header(provider.getMapperNumber(), submapper, false));
+    }
+
+    // A mapper for the given board on patterned PRG ROM of the given size and 256KB of CHR ROM
+    private static Mapper createPatterned(int mapperNumber, int prgSize) {
+        MapperProvider provider = MapperRegistry.find(mapperNumber, 0);
+        assertNotNull(provider, "Mapper " + mapperNumber + " is not registered");
+        return provider.create(patternedRom(prgSize, 0x2000), patternedRom(CHR_SIZE, 0x0400), false,
+                header(mapperNumber, 0, false, prgSize));
+    }
+
+    private static int[] chrOffsets(Mapper mapper) {
+        int[] offsets = new int[8];
+        for (int i = 0; i < 8; i++) {
+            offsets[i] = mapper.getChrWindowOffset(i);
+        }
+        return offsets;
+    }
+
+    private static void assertBanksAligned(Mapper mapper, String when) {
+        for (int window = 0; window < 4; window++) {
+            int base = 0x8000 + window * 0x2000;
+            int bank = bankAt(mapper.read(base));
+            for (int offset = 0; offset < 0x2000; offset += 61) {
+                assertEquals(pattern(bank, offset), mapper.read(base + offset),
+                        String.format("PRG $%04X is not one aligned 8KB bank after %s", base, when));
+            }
+        }
+
+        for (int window = 0; window < 8; window++) {
+            int base = window * 0x0400;
+            byte[] array = mapper.getChrWindow(window);
+            int windowOffset = mapper.getChrWindowOffset(window);
+            int bank = bankAt(mapper.chrRead(base));
+            for (int offset = 0; offset < 0x0400; offset += 7) {
+                int value = mapper.chrRead(base + offset);
+                assertEquals(pattern(bank, offset), value,
+                        String.format("CHR $%04X is not one aligned 1KB bank after %s", base, when));
+                assertEquals(value, array[windowOffset + offset] & 0xFF,
+                        String.format("CHR window %d disagrees with chrRead after %s", window, when));
+            }
+        }
+    }
+
+    // Consecutive bank numbers
+    private static int[] banks(int first, int count) {
+        int[] banks = new int[count];
+        for (int i = 0; i < count; i++) {
+            banks[i] = first + i;
+        }
+        return banks;
+    }
+
+    private static int[] concat(int[] a, int[] b) {
+        int[] joined = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, joined, a.length, b.length);
+        return joined;
+    }
+
+    /** Assert which 8KB PRG bank each CPU window and which 1KB CHR bank each PPU window shows. */
+    private static void assertBanks(Mapper mapper, int[] prg, int[] chr, String when) {
+        assertBanksAligned(mapper, when);
+        int[] prgBanks = new int[4];
+        for (int window = 0; window < 4; window++) {
+            prgBanks[window] = bankAt(mapper.read(0x8000 + window * 0x2000));
+        }
+        int[] chrBanks = new int[8];
+        for (int window = 0; window < 8; window++) {
+            chrBanks[window] = bankAt(mapper.chrRead(window * 0x0400));
+        }
+        assertArrayEquals(prg, prgBanks, "PRG banks after " + when);
+        assertArrayEquals(chr, chrBanks, "CHR banks after " + when);
+    }
+
+    // MMC1 registers are loaded one bit per write, low bit first
+    private static void writeMmc1(Mapper mapper, int address, int value) {
+        for (int bit = 0; bit < 5; bit++) {
+            mapper.write(address, (value >> bit) & 1);
+        }
+    }
+
+    private static void writeMmc3(Mapper mapper, int bankSelect, int value) {
+        mapper.write(0x8000, bankSelect);
+        mapper.write(0x8001, value);
+    }
+
+    @Test
+    void providersAreRegistered() {
+        assertFalse(MapperRegistry.getProviders().isEmpty(), "No mappers found by the ServiceLoader");
+        for (MapperProvider provider : MapperRegistry.getProviders()) {
+            int[] submappers = provider.getSubmappers();
+            int submapper = submappers.length > 0 ? submappers[0] : 0;
+            assertSame(provider, MapperRegistry.find(provider.getMapperNumber(), submapper));
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("providers")
+    void banksStayAlignedUnderRandomWrites(MapperProvider provider) {
+        Mapper mapper = createPatterned(provider);
+        assertBanksAligned(mapper, "power-on");
+
+        Random random = new Random(provider.getMapperNumber());
+        int[] offsets = chrOffsets(mapper);
+        int generation = mapper.getChrBankGeneration();
+        for (int i = 0; i < RANDOM_WRITES; i++) {
+            int address = 0x8000 + random.nextInt(0x8000);
+            int value = random.nextInt(256);
+            mapper.write(address, value);
+
+            String after = String.format("write $%02X to $%04X", value, address);
+            assertBanksAligned(mapper, after);
+            int[] newOffsets = chrOffsets(mapper);
+            if (!Arrays.equals(offsets, newOffsets)) {
+                assertNotEquals(generation, mapper.getChrBankGeneration(),
+                        "CHR windows remapped without a bank generation change after " + after);
+            }
+            offsets = newOffsets;
+            generation = mapper.getChrBankGeneration();
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("providers")
+    void prgRamHoldsWritesAndCountsThem(MapperProvider provider) {
+        Mapper mapper = createPatterned(provider);
+        if (mapper.getPrgRAM() == null) return;
+
+        int writesBefore = mapper.getPrgRamWrites();
+        for (int address = 0x6000; address < 0x8000; address++) {
+            mapper.write(address, address * 31);
+        }
+        for (int address = 0x6000; address < 0x8000; address++) {
+            assertEquals((address * 31) & 0xFF, mapper.read(address),
+                    String.format("PRG-RAM $%04X did not hold its value", address));
+        }
+        assertEquals(0x2000, mapper.getPrgRamWrites() - writesBefore, "PRG-RAM write count");
+    }
+
+    @ParameterizedTest
+    @MethodSource("providers")
+    void chrRamHoldsWrites(MapperProvider provider) {
+        byte[] chrRam = new byte[0x2000];
+        Mapper mapper = provider.create(patternedRom(PRG_SIZE, 0x2000), chrRam, true,
+                header(provider.getMapperNumber(), 0, true));
+        for (int address = 0; address < 0x2000; address++) {
+            mapper.chrWrite(address, address * 17);
+        }
+        for (int address = 0; address < 0x2000; address++) {
+            assertEquals((address * 17) & 0xFF, mapper.chrRead(address),
+                    String.format("CHR-RAM $%04X did not hold its value", address));
+        }
+    }
+
+    @Test
+    void nromMapsFixedBanks() {
+        Mapper mapper = createPatterned(0, PRG_SIZE);
+        assertBanks(mapper, banks(0, 4), banks(0, 8), "power-on");
+        mapper.write(0x8000, 0xFF);
+        assertBanks(mapper, banks(0, 4), banks(0, 8), "a write to $8000");
+    }
+
+    @Test
+    void mmc1PrgAndChrModes() {
+        // 256KB, so every PRG bank is reachable without SUROM's outer bank bit; the last is 16KB bank 15
+        Mapper mapper = createPatterned(1, 256 * 1024);
+        assertBanks(mapper, new int[]{0, 1, 30, 31}, banks(0, 8), "power-on (PRG mode 3, 8KB CHR)");
+
+        writeMmc1(mapper, 0xE000, 5);
+        assertBanks(mapper, new int[]{10, 11, 30, 31}, banks(0, 8), "PRG bank 5 in mode 3");
+
+        writeMmc1(mapper, 0x8000, 0x08);
+        assertBanks(mapper, new int[]{0, 1, 10, 11}, banks(0, 8), "PRG mode 2");
+
+        writeMmc1(mapper, 0x8000, 0x00);
+        assertBanks(mapper, banks(8, 4), banks(0, 8), "PRG mode 0, 32KB with the low bit ignored");
+
+        writeMmc1(mapper, 0xA000, 5);
+        assertBanks(mapper, banks(8, 4), banks(16, 8), "CHR bank 5 in 8KB mode, low bit ignored");
+
+        writeMmc1(mapper, 0xC000, 9);
+        writeMmc1(mapper, 0x8000, 0x1E);
+        assertBanks(mapper, new int[]{10, 11, 30, 31}, concat(banks(20, 4), banks(36, 4)),
+                "4KB CHR mode with banks 5 and 9");
+        assertEquals(Mapper.MIRROR_VERTICAL, mapper.getMirroringMode(), "Mirroring after control $1E");
+
+        writeMmc1(mapper, 0x8000, 0x18);
+        assertBanks(mapper, new int[]{0, 1, 10, 11}, concat(banks(20, 4), banks(36, 4)), "PRG mode 2, 4KB CHR");
+        mapper.write(0x8000, 0x80);
+        assertBanks(mapper, new int[]{10, 11, 30, 31}, concat(banks(20, 4), banks(36, 4)),
+                "a reset write, back to PRG mode 3");
+    }
+
+    @Test
+    void mmc3BankModes() {
+        Mapper mapper = createPatterned(4, PRG_SIZE);
+        int[] registers = {9, 12, 20, 21, 22, 23, 5, 7};
+        for (int r = 0; r < registers.length; r++) {
+            writeMmc3(mapper, r, registers[r]);
+        }
+        int[] twoKb = {8, 9, 12, 13}; // R0 and R1 ignore their low bit
+        int[] oneKb = banks(20, 4);
+
+        assertBanks(mapper, new int[]{5, 7, 62, 63}, concat(twoKb, oneKb), "PRG mode 0, CHR mode 0");
+
+        mapper.write(0x8000, 0x40);
+        assertBanks(mapper, new int[]{62, 7, 5, 63}, concat(twoKb, oneKb), "PRG mode 1");
+
+        mapper.write(0x8000, 0xC0);
+        assertBanks(mapper, new int[]{62, 7, 5, 63}, concat(oneKb, twoKb), "PRG mode 1, CHR inversion");
+
+        mapper.write(0x8000, 0x80);
+        assertBanks(mapper, new int[]{5, 7, 62, 63}, concat(oneKb, twoKb), "PRG mode 0, CHR inversion");
+    }
+
+    @Test
+    void uxromFixesLastBank() {
+        Mapper mapper = createPatterned(2, PRG_SIZE);
+        assertBanks(mapper, new int[]{0, 1, 62, 63}, banks(0, 8), "power-on");
+
+        mapper.write(0x8000, 5);
+        assertBanks(mapper, new int[]{10, 11, 62, 63}, banks(0, 8), "bank 5");
+
+        mapper.write(0xFFFF, 31);
+        assertBanks(mapper, new int[]{62, 63, 62, 63}, banks(0, 8), "bank 31 written at $FFFF");
+    }
+
+    @Test
+    void cnromSwitchesChr() {
+        Mapper mapper = createPatterned(3, PRG_SIZE);
+        assertBanks(mapper, banks(0, 4), banks(0, 8), "power-on");
+
+        mapper.write(0x8000, 3);
+        assertBanks(mapper, banks(0, 4), banks(24, 8), "CHR bank 3");
+    }
+
+    @Test
+    void axromSwitchesPrgAndMirroring() {
+        Mapper mapper = createPatterned(7, PRG_SIZE);
+        assertBanks(mapper, banks(0, 4), banks(0, 8), "power-on");
+        assertEquals(Mapper.MIRROR_SINGLE_LOWER, mapper.getMirroringMode(), "Mirroring at power-on");
+
+        mapper.write(0x8000, 0x13);
+        assertBanks(mapper, banks(12, 4), banks(0, 8), "PRG bank 3, upper nametable");
+        assertEquals(Mapper.MIRROR_SINGLE_UPPER, mapper.getMirroringMode(), "Mirroring after $13");
+
+        mapper.write(0x8000, 0x05);
+        assertBanks(mapper, banks(20, 4), banks(0, 8), "PRG bank 5, lower nametable");
+        assertEquals(Mapper.MIRROR_SINGLE_LOWER, mapper.getMirroringMode(), "Mirroring after $05");
+    }
+
+    @Test
+    void sachen148SwitchesPrgAndChr() {
+        Mapper mapper = createPatterned(148, PRG_SIZE);
+        assertBanks(mapper, banks(0, 4), banks(0, 8), "power-on");
+
+        mapper.write(0x8000, 0x0D);
+        assertBanks(mapper, banks(4, 4), banks(40, 8), "PRG bank 1, CHR bank 5");
+    }
+}
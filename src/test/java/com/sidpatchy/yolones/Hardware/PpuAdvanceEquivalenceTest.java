@@ -0,0 +1,124 @@
+package com.sidpatchy.yolones.Hardware;
+
+import com.sidpatchy.yolones.Hardware.Mappers.Mapper;
+import com.sidpatchy.yolones.Hardware.Mappers.Mapper4;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Random;
+import java.util.Set;
+
+import static com.sidpatchy.yolones.Hardware.StateAssertions.assertSameState;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * PPU.advance(n) must leave the PPU, and the MMC3 IRQ counter it clocks, exactly as n calls to
+ * tick() would, and report NMI and the start of vblank on the same dots.
+ */
+class PpuAdvanceEquivalenceTest {
+    private static final int ITERATIONS = 10_000;
+    private static final int[] MASKS = {0x1E, 0x1E, 0x18, 0x08, 0x10, 0x00};
+
+    // One PPU on its own MMC3 cartridge, so the mapper's IRQ counter is compared as well
+    private static final class Side {
+        final Mapper mapper;
+        final PPU ppu;
+
+        Side(byte[] prg, byte[] chr) {
+            mapper = new Mapper4(prg.clone(), chr.clone(), false);
+            ppu = new PPU(new PPUMemory(mapper, false), mapper);
+        }
+
+        void writeMapper(int address, int value) {
+            ppu.catchUp();
+            mapper.write(address, value);
+            ppu.mapperStateChanged();
+        }
+    }
+
+    private static void compare(Side reference, Side bulk, String when) {
+        // Only advance() reports where vblank started, it is checked against tick() separately
+        assertSameState(reference.ppu, bulk.ppu, Set.of("vblankDot"), when);
+        assertArrayEquals(reference.ppu.getFramebuffer(), bulk.ppu.getFramebuffer(), "Framebuffer " + when);
+        assertSameState(reference.mapper, bulk.mapper, Set.of(), when);
+        assertEquals(reference.mapper.hasIRQ(), bulk.mapper.hasIRQ(), "Mapper IRQ " + when);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 3})
+    void advanceMatchesTick(int seed) {
+        Random random = new Random(seed);
+        byte[] prg = new byte[0x8000];
+        byte[] chr = new byte[0x20000];
+        random.nextBytes(prg);
+        random.nextBytes(chr);
+        Side reference = new Side(prg, chr);
+        Side bulk = new Side(prg, chr);
+
+        // Fill the nametables and palettes so rendered lines have content
+        for (int address = 0x2000; address < 0x4000; address += 0x100) {
+            int value = random.nextInt(256);
+            for (Side side : new Side[]{reference, bulk}) {
+                side.ppu.writeRegister(0x2006, address >> 8);
+                side.ppu.writeRegister(0x2006, 0);
+            }
+            for (int i = 0; i < 0x100; i++) {
+                reference.ppu.writeRegister(0x2007, value + i);
+                bulk.ppu.writeRegister(0x2007, value + i);
+            }
+        }
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            int op = random.nextInt(12);
+            int value = random.nextInt(256);
+            switch (op) {
+                case 0:
+                    // NMI enabled about half the time, vblank must be reported either way
+                    reference.ppu.writeRegister(0x2000, value);
+                    bulk.ppu.writeRegister(0x2000, value);
+                    break;
+                case 1:
+                    int mask = MASKS[value % MASKS.length];
+                    reference.ppu.writeRegister(0x2001, mask);
+                    bulk.ppu.writeRegister(0x2001, mask);
+                    break;
+                case 2:
+                    int register = 0x2003 + random.nextInt(4); // OAMADDR, OAMDATA, PPUSCROLL, PPUADDR
+                    reference.ppu.writeRegister(register, value);
+                    bulk.ppu.writeRegister(register, value);
+                    break;
+                case 3:
+                    int read = 0x2002 + 5 * random.nextInt(2); // PPUSTATUS, PPUDATA
+                    assertEquals(reference.ppu.readRegister(read), bulk.ppu.readRegister(read),
+                            String.format("$%04X at iteration %d", read, i));
+                    break;
+                case 4:
+                    // Bank select/data, mirroring, IRQ latch/reload, IRQ disable/enable
+                    int address = 0x8000 + random.nextInt(8) * 0x1000 + random.nextInt(2);
+                    reference.writeMapper(address, value);
+                    bulk.writeMapper(address, value);
+                    break;
+            }
+
+            // Mostly instruction-sized steps, sometimes up to a frame
+            int dots = random.nextInt(20) == 0 ? random.nextInt(90_000) : random.nextInt(24) + 1;
+            int referenceNmi = -1;
+            int referenceVblank = -1;
+            for (int d = 0; d < dots; d++) {
+                if (reference.ppu.tick() && referenceNmi < 0) {
+                    referenceNmi = d;
+                }
+                if (reference.ppu.getScanline() == 241 && reference.ppu.getCycle() == 0 && referenceVblank < 0) {
+                    referenceVblank = d;
+                }
+            }
+            int bulkNmi = bulk.ppu.advance(dots);
+
+            String when = "after advance(" + dots + ") at iteration " + i;
+            assertEquals(referenceNmi, bulkNmi, "NMI dot " + when);
+            assertEquals(referenceVblank, bulk.ppu.getVblankDot(), "Vblank dot " + when);
+            compare(reference, bulk, when);
+        }
+    }
+}
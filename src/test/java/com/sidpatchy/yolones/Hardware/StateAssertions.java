@@ -0,0 +1,46 @@
+package com.sidpatchy.yolones.Hardware;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Objects;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Compares the emulated state of two hardware objects field by field, so bulk stepping paths can
+ * be checked against their per-cycle reference.
+ */
+final class StateAssertions {
+    private StateAssertions() {
+    }
+
+    /**
+     * Fail unless every instance field of a primitive or primitive array type, declared by the
+     * object's class or its superclasses, holds the same value in both. References to other
+     * objects (memories, mappers, buffers) are not followed.
+     *
+     * @param ignored names of fields that are allowed to differ
+     */
+    static void assertSameState(Object expected, Object actual, Set<String> ignored, String when) {
+        for (Class<?> c = expected.getClass(); c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || ignored.contains(field.getName())) continue;
+                Class<?> type = field.getType();
+                if (!type.isPrimitive() && !(type.isArray() && type.getComponentType().isPrimitive())) continue;
+
+                field.setAccessible(true);
+                try {
+                    Object a = field.get(expected);
+                    Object b = field.get(actual);
+                    if (!Objects.deepEquals(a, b)) {
+                        fail(String.format("%s.%s differs %s: expected %s but was %s", c.getSimpleName(),
+                                field.getName(), when, type.isArray() ? "array" : a, type.isArray() ? "array" : b));
+                    }
+                } catch (IllegalAccessException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        }
+    }
+}
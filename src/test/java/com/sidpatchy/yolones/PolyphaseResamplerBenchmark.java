@@ -0,0 +1,79 @@
+package com.sidpatchy.yolones;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures {@link PolyphaseResampler} throughput in output samples per second, for the scalar
+ * kernel and (when the module is present) the Vector API kernel, on one core and per core with
+ * every core busy. Run with {@code gradle resamplerBenchmark}, or directly with
+ * {@code [in rate] [out rate]} arguments.
+ */
+public final class PolyphaseResamplerBenchmark {
+    private PolyphaseResamplerBenchmark() {
+    }
+
+    // Output samples per second from one resampler on the calling thread, over roughly the given time
+    private static double measure(int inRate, int outRate, boolean vector, long nanos) {
+        PolyphaseResampler resampler = new PolyphaseResampler(inRate, outRate, vector);
+        float[] in = new float[256];
+        for (int i = 0; i < in.length; i++) {
+            in[i] = (float) Math.sin(i * 0.05);
+        }
+        float[] out = new float[resampler.maxOutput(in.length)];
+        short[] scratch = new short[out.length];
+        byte[] pcm = new byte[out.length * 2];
+
+        long produced = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (int i = 0; i < 64; i++) {
+                int n = resampler.process(in, 0, in.length, out);
+                PolyphaseResampler.toPcm16(out, 0, n, scratch, pcm);
+                produced += n;
+            }
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < nanos);
+        return produced * 1e9 / elapsed;
+    }
+
+    private static void report(int inRate, int outRate, boolean vector) throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        measure(inRate, outRate, vector, 500_000_000L); // Warm up
+        double single = measure(inRate, outRate, vector, 1_000_000_000L);
+
+        ExecutorService pool = Executors.newFixedThreadPool(cores);
+        List<Future<Double>> results = new ArrayList<>();
+        for (int i = 0; i < cores; i++) {
+            results.add(pool.submit(() -> measure(inRate, outRate, vector, 1_000_000_000L)));
+        }
+        double total = 0;
+        for (Future<Double> result : results) {
+            total += result.get();
+        }
+        pool.shutdown();
+
+        System.out.printf("%s kernel%n", vector ? "vector" : "scalar");
+        System.out.printf("  one core:  %.1fM samples/s (%.0fx realtime)%n", single / 1e6, single / outRate);
+        System.out.printf("  per core:  %.1fM samples/s with %d cores busy%n", total / cores / 1e6, cores);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int inRate = args.length > 0 ? Integer.parseInt(args[0]) : 44100;
+        int outRate = args.length > 1 ? Integer.parseInt(args[1]) : 48000;
+
+        PolyphaseResampler resampler = new PolyphaseResampler(inRate, outRate);
+        System.out.printf("%d -> %d Hz, %d phases x %d taps%n", inRate, outRate, resampler.getPhases(), resampler.getTaps());
+        report(inRate, outRate, false);
+        if (PolyphaseResampler.isVectorAvailable()) {
+            report(inRate, outRate, true);
+        } else {
+            System.out.println("vector kernel: jdk.incubator.vector not present");
+        }
+    }
+}
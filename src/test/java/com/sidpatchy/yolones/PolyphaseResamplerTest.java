@@ -0,0 +1,84 @@
+package com.sidpatchy.yolones;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class PolyphaseResamplerTest {
+    static Stream<Arguments> rates() {
+        return Stream.of(Arguments.of(44100, 48000), Arguments.of(48000, 44100),
+                Arguments.of(44100, 96000), Arguments.of(44100, 44100));
+    }
+
+    // Feed input in player-sized chunks and collect everything produced
+    private static float[] run(PolyphaseResampler resampler, float[] input) {
+        float[] output = new float[resampler.maxOutput(input.length)];
+        float[] chunk = new float[resampler.maxOutput(256)];
+        int produced = 0;
+        for (int offset = 0; offset < input.length; offset += 256) {
+            int n = resampler.process(input, offset, Math.min(256, input.length - offset), chunk);
+            System.arraycopy(chunk, 0, output, produced, n);
+            produced += n;
+        }
+        return java.util.Arrays.copyOf(output, produced);
+    }
+
+    @ParameterizedTest
+    @MethodSource("rates")
+    void outputCountFollowsTheRatio(int inRate, int outRate) {
+        float[] output = run(new PolyphaseResampler(inRate, outRate, false), new float[inRate]);
+        // One second in, one second out, less the filter's look-ahead
+        int expected = outRate;
+        assertTrue(Math.abs(output.length - expected) <= 64 * outRate / inRate + 1,
+                "Produced " + output.length + " samples, expected about " + expected);
+    }
+
+    @ParameterizedTest
+    @MethodSource("rates")
+    void constantInputStaysConstant(int inRate, int outRate) {
+        float[] input = new float[inRate / 10];
+        java.util.Arrays.fill(input, 0.5f);
+        float[] output = run(new PolyphaseResampler(inRate, outRate, false), input);
+        // Past the filter's run-in from the initial silence
+        for (int i = 200; i < output.length; i++) {
+            assertEquals(0.5, output[i], 1e-5, "Sample " + i);
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("rates")
+    void vectorKernelMatchesScalar(int inRate, int outRate) {
+        assumeTrue(PolyphaseResampler.isVectorAvailable(), "jdk.incubator.vector not present");
+
+        Random random = new Random(inRate ^ outRate);
+        float[] input = new float[inRate / 10];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = random.nextFloat() * 2 - 1;
+        }
+        float[] scalar = run(new PolyphaseResampler(inRate, outRate, false), input);
+        float[] vector = run(new PolyphaseResampler(inRate, outRate, true), input);
+        assertEquals(scalar.length, vector.length, "Output length");
+        // Same products, summed in a different order and with fused multiply-adds
+        for (int i = 0; i < scalar.length; i++) {
+            assertEquals(scalar[i], vector[i], 1e-5, "Sample " + i);
+        }
+    }
+
+    @Test
+    void pcmConversionClamps() {
+        short[] pcm = new short[4];
+        PolyphaseResampler.toPcm16(new float[]{0f, 1f, -1.5f, 2f}, 0, 4, pcm);
+        assertEquals(0, pcm[0]);
+        assertEquals(32767, pcm[1]);
+        assertEquals(-32768, pcm[2]);
+        assertEquals(32767, pcm[3]);
+    }
+}